@@ -0,0 +1,60 @@
+package ml.learning.dubinscar.environment;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.learning.dubinscar.environment.PolygonDecomposer.Point;
+import ml.learning.dubinscar.environment.PolygonDecomposer.Triangle;
+import ml.learning.dubinscar.geometry.Polygon2D;
+import ml.learning.dubinscar.training.Scenarios;
+
+/**
+ * Triangulation and convex partitioning of random simple, generally
+ * non-convex, polygons.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PolygonDecomposerBenchmark {
+
+   @Param({ "8", "32", "128" })
+   public int vertices;
+
+   private List<Point> polygon;
+
+   @Setup
+   public void setUp() {
+      Polygon2D shape = Scenarios.polygon(new SplittableRandom(42), vertices);
+      polygon = new ArrayList<>(vertices);
+      for (int i = 0; i < vertices; i++) {
+         polygon.add(new Point(shape.getX(i), shape.getY(i)));
+      }
+   }
+
+   @Benchmark
+   public List<Triangle> triangulate() {
+      return PolygonDecomposer.triangulate(polygon);
+   }
+
+   @Benchmark
+   public List<List<Point>> convexPartition() {
+      return PolygonDecomposer.convexPartition(polygon);
+   }
+}
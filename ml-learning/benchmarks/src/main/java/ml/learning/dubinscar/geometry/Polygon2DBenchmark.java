@@ -0,0 +1,80 @@
+package ml.learning.dubinscar.geometry;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.learning.dubinscar.training.Scenarios;
+
+/**
+ * Point and segment queries against single polygons, over a fixed set of
+ * random queries spread across the op-area, so most are rejected by the
+ * bounding box as in a real scenario.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class Polygon2DBenchmark {
+
+   private static final int POLYGONS = 64;
+   private static final int QUERIES = 1024;
+
+   @Param({ "3", "8", "32" })
+   public int vertices;
+
+   private Polygon2D[] polygons;
+   private double[] queries;
+
+   @Setup
+   public void setUp() {
+      SplittableRandom random = new SplittableRandom(42);
+      polygons = new Polygon2D[POLYGONS];
+      for (int p = 0; p < POLYGONS; p++) {
+         polygons[p] = Scenarios.polygon(random, vertices);
+      }
+      queries = new double[4 * QUERIES];
+      for (int q = 0; q < queries.length; q++) {
+         queries[q] = random.nextDouble() * Scenarios.SIZE;
+      }
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(QUERIES)
+   public int contains() {
+      int hits = 0;
+      for (int q = 0; q < QUERIES; q++) {
+         if (polygons[q % POLYGONS].contains(queries[4 * q], queries[4 * q + 1])) {
+            hits++;
+         }
+      }
+      return hits;
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(QUERIES)
+   public int intersects() {
+      int hits = 0;
+      for (int q = 0; q < QUERIES; q++) {
+         if (polygons[q % POLYGONS].intersects(queries[4 * q], queries[4 * q + 1],
+               queries[4 * q + 2], queries[4 * q + 3])) {
+            hits++;
+         }
+      }
+      return hits;
+   }
+}
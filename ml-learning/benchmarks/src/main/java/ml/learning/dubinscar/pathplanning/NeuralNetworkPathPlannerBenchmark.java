@@ -0,0 +1,73 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+import ml.learning.dubinscar.training.NeuralNetworkTrainer;
+import ml.learning.dubinscar.training.Scenarios;
+
+/**
+ * Input encoding and single-request inference with a freshly initialized
+ * network. The network input holds at most
+ * {@link NeuralNetworkPathPlanner#MAX_POLYGONS} obstacles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class NeuralNetworkPathPlannerBenchmark {
+
+   private static final int SCENARIOS = 16;
+
+   @Param({ "0", "10", "20" })
+   public int obstacles;
+
+   private List<TrainingExample> examples;
+   private NeuralNetworkPathPlanner planner;
+   private int next;
+
+   @Setup
+   public void setUp() {
+      examples = Scenarios.examples(42, SCENARIOS, obstacles);
+      MultiLayerNetwork model = NeuralNetworkTrainer.createNewModel();
+      planner = new NeuralNetworkPathPlanner(model);
+   }
+
+   private TrainingExample nextExample() {
+      TrainingExample example = examples.get(next);
+      next = (next + 1) % SCENARIOS;
+      return example;
+   }
+
+   @Benchmark
+   public INDArray produceInputArray() {
+      TrainingExample e = nextExample();
+      return NeuralNetworkPathPlanner.produceInputArray(e.getCar(), e.getStart(), e.getEnd(),
+            e.getObstacles(), e.getSpeedReductionRegions(), e.getSwPoint(), e.getNePoint());
+   }
+
+   @Benchmark
+   public DubinsPath planPath() {
+      TrainingExample e = nextExample();
+      return planner.planPath(e.getCar(), e.getStart(), e.getEnd(), e.getObstacles(),
+            e.getSpeedReductionRegions(), e.getSwPoint(), e.getNePoint());
+   }
+}
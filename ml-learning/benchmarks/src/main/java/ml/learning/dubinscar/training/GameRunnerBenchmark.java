@@ -0,0 +1,104 @@
+package ml.learning.dubinscar.training;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.learning.dubinscar.environment.ObstacleIndex;
+import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.pathplanning.AStarSearch;
+import ml.learning.dubinscar.pathplanning.LatticeGraph;
+import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+
+/**
+ * Lattice path search by obstacle count and lattice resolution. Each call
+ * moves on to the next of a fixed set of scenarios, so edge costs memoized
+ * for one scenario are not reused by the next call.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GameRunnerBenchmark {
+
+   private static final int SCENARIOS = 16;
+
+   @Param({ "5", "20", "80" })
+   public int obstacles;
+
+   @Param({ "25", "50" })
+   public int resolution;
+
+   private List<TrainingExample> examples;
+   private LatticeGraph lattice;
+   private GameRunner runner;
+   private AStarSearch search;
+   private int next;
+
+   @Setup
+   public void setUp() {
+      examples = Scenarios.examples(42, SCENARIOS, obstacles);
+      TrainingExample first = examples.get(0);
+      lattice = new LatticeGraph(first.getSwPoint(), first.getNePoint(), resolution,
+            resolution / 4);
+      runner = new GameRunner();
+      search = new AStarSearch();
+      for (TrainingExample example : examples) {
+         example.getObstacleIndex();
+      }
+   }
+
+   private TrainingExample nextExample() {
+      TrainingExample example = examples.get(next);
+      next = (next + 1) % SCENARIOS;
+      return example;
+   }
+
+   /**
+    * The search the self-play matches run, with edge costs memoized per
+    * scenario.
+    */
+   @Benchmark
+   public DubinsPath graphPath() {
+      return runner.graphPath(nextExample(), lattice);
+   }
+
+   /**
+    * The bare A* search over the lattice, scoring every edge it relaxes
+    * against the obstacles without memoization.
+    */
+   @Benchmark
+   public int search() {
+      TrainingExample example = nextExample();
+      ObstacleIndex index = example.getObstacleIndex();
+      LatticeGraph.Query query = new LatticeGraph.Query(lattice, example.getStart(),
+            example.getEnd()) {
+         @Override
+         public double cost(int from, int to) {
+            double length = heuristic(from, to);
+            return index.intersects(getX(from), getY(from), getX(to), getY(to)) ? 100 * length
+                  : length;
+         }
+
+         @Override
+         public double heuristic(int node, int goal) {
+            return Math.hypot(getX(node) - getX(goal), getY(node) - getY(goal));
+         }
+      };
+      search.search(query, query.getStartId(), query.getGoalId());
+      return search.getExpandedCount();
+   }
+}
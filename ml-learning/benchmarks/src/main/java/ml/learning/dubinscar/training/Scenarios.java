@@ -0,0 +1,93 @@
+package ml.learning.dubinscar.training;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import ml.learning.dubinscar.environment.Obstacle;
+import ml.learning.dubinscar.geometry.DubinsCar;
+import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.geometry.Polygon2D;
+import ml.learning.dubinscar.geometry.Waypoint;
+import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+
+/**
+ * Builds reproducible benchmark scenarios. Unlike the training data
+ * generator, the number of obstacles is exact, so benchmarks can be
+ * parameterized by it.
+ */
+public final class Scenarios {
+
+   /**
+    * The width and height of the op-area, as in the default generator.
+    */
+   public static final double SIZE = 100;
+
+   private static final double MAX_RADIUS = 15;
+
+   private Scenarios() {
+   }
+
+   /**
+    * Creates a star-shaped polygon: vertices at increasing angles around a
+    * centre, each at a random distance from it.
+    *
+    * @param random   the source of randomness
+    * @param vertices the number of vertices
+    * @return the polygon
+    */
+   public static Polygon2D polygon(SplittableRandom random, int vertices) {
+      double centerX = random.nextDouble() * SIZE;
+      double centerY = random.nextDouble() * SIZE;
+      double radius = 1 + random.nextDouble() * (MAX_RADIUS - 1);
+
+      double[] angles = new double[vertices];
+      for (int i = 0; i < vertices; i++) {
+         angles[i] = random.nextDouble() * Math.PI * 2;
+      }
+      Arrays.sort(angles);
+
+      double[] xs = new double[vertices];
+      double[] ys = new double[vertices];
+      for (int i = 0; i < vertices; i++) {
+         double r = radius * (0.5 + 0.5 * random.nextDouble());
+         xs[i] = centerX + r * Math.cos(angles[i]);
+         ys[i] = centerY + r * Math.sin(angles[i]);
+      }
+      return new Polygon2D(xs, ys);
+   }
+
+   /**
+    * Creates examples with exactly the given number of triangular obstacles,
+    * the shape the network input encodes.
+    *
+    * @param seed      the seed the examples are derived from
+    * @param count     the number of examples
+    * @param obstacles the number of obstacles in each example
+    * @return the examples
+    */
+   public static List<TrainingExample> examples(long seed, int count, int obstacles) {
+      SplittableRandom random = new SplittableRandom(seed);
+      List<TrainingExample> examples = new ArrayList<>(count);
+      for (int e = 0; e < count; e++) {
+         Waypoint start = waypoint(random);
+         Waypoint end = waypoint(random);
+         List<Obstacle> obstacleList = new ArrayList<>(obstacles);
+         for (int o = 0; o < obstacles; o++) {
+            obstacleList.add(new Obstacle(polygon(random, 3), 0.0));
+         }
+         DubinsCar car = new DubinsCar(start.getX(), start.getY(), start.getOrientation(), 5, 10);
+         examples.add(new TrainingExample(car, start, end, obstacleList, new ArrayList<>(),
+               new Point2D.Double(0, 0), new Point2D.Double(SIZE, SIZE),
+               new DubinsPath(Arrays.asList(start, end))));
+      }
+      return examples;
+   }
+
+   private static Waypoint waypoint(SplittableRandom random) {
+      return new Waypoint(random.nextDouble() * SIZE, random.nextDouble() * SIZE,
+            random.nextDouble() * Math.PI * 2);
+   }
+}
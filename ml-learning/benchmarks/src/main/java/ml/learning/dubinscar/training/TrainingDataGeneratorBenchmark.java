@@ -0,0 +1,52 @@
+package ml.learning.dubinscar.training;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ml.learning.dubinscar.pathplanning.NeuralNetworkPathPlanner;
+import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+
+/**
+ * Scenario generation, per example, with the default generator's settings
+ * apart from the maximum number of obstacles.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TrainingDataGeneratorBenchmark {
+
+   private static final int BATCH = 32;
+
+   @Param({ "5", "20", "80" })
+   public int maxObstacles;
+
+   private DubinsCarTrainingDataGenerator generator;
+
+   @Setup
+   public void setUp() {
+      generator = new DubinsCarTrainingDataGenerator(42, Scenarios.SIZE, Scenarios.SIZE, 10, 5,
+            10, 10, 25, NeuralNetworkPathPlanner.MAX_VERTICES_PER_POLY, maxObstacles);
+   }
+
+   @Benchmark
+   @OperationsPerInvocation(BATCH)
+   public List<TrainingExample> generateTrainingData() {
+      return generator.generateTrainingData(BATCH);
+   }
+}
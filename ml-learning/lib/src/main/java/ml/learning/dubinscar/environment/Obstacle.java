@@ -18,12 +18,21 @@ public class Obstacle {
       return shape.intersects(start, end);
    }
 
+   public boolean intersects(double x1, double y1, double x2, double y2) {
+      return shape.intersects(x1, y1, x2, y2);
+   }
+
+   public boolean intersectsArc(double cx, double cy, double radius, double startAngle,
+         double sweep) {
+      return shape.intersectsArc(cx, cy, radius, startAngle, sweep);
+   }
+
    public boolean contains(Point2D point) {
       return shape.contains(point);
    }
 
    public boolean contains(double x, double y) {
-      return shape.contains(new Point2D.Double(x, y));
+      return shape.contains(x, y);
    }
 
    public double getSpeedReduction() {
@@ -0,0 +1,318 @@
+package ml.learning.dubinscar.environment;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.learning.dubinscar.geometry.DubinsPathSolver.Word;
+import ml.learning.dubinscar.geometry.Polygon2D;
+
+/**
+ * A uniform grid over the op-area that buckets obstacles by their bounding
+ * boxes, so that segment and point queries only test the polygons near the
+ * query instead of every obstacle in the environment. Obstacles that extend
+ * past the op-area are kept in the border cells, so queries outside the
+ * op-area still see them. The index is immutable once built and may be shared
+ * between threads.
+ */
+public class ObstacleIndex {
+
+   public static final int DEFAULT_RESOLUTION = 16;
+
+   private static final double TWO_PI = 2 * Math.PI;
+
+   private final Obstacle[] obstacles;
+
+   // bounding box of each obstacle, indexed like obstacles
+   private final double[] minX;
+   private final double[] minY;
+   private final double[] maxX;
+   private final double[] maxY;
+
+   private final double swX;
+   private final double swY;
+   private final double cellWidth;
+   private final double cellHeight;
+   private final int columns;
+   private final int rows;
+
+   // cell c holds cellItems[cellStart[c] .. cellStart[c + 1])
+   private final int[] cellStart;
+   private final int[] cellItems;
+
+   public ObstacleIndex(List<Obstacle> obstacles, Point2D swPoint, Point2D nePoint) {
+      this(obstacles, swPoint, nePoint, DEFAULT_RESOLUTION);
+   }
+
+   /**
+    * Builds an index over the given obstacles.
+    *
+    * @param obstacles  the obstacles to index
+    * @param swPoint    the south-west corner of the op-area
+    * @param nePoint    the north-east corner of the op-area
+    * @param resolution the number of cells along each side of the op-area
+    */
+   public ObstacleIndex(List<Obstacle> obstacles, Point2D swPoint, Point2D nePoint,
+         int resolution) {
+      if (resolution < 1) {
+         throw new IllegalArgumentException("resolution must be positive: " + resolution);
+      }
+
+      int n = obstacles.size();
+      this.obstacles = obstacles.toArray(new Obstacle[n]);
+      this.minX = new double[n];
+      this.minY = new double[n];
+      this.maxX = new double[n];
+      this.maxY = new double[n];
+
+      this.swX = swPoint.getX();
+      this.swY = swPoint.getY();
+      this.columns = resolution;
+      this.rows = resolution;
+      this.cellWidth = Math.max(nePoint.getX() - swX, Double.MIN_NORMAL) / columns;
+      this.cellHeight = Math.max(nePoint.getY() - swY, Double.MIN_NORMAL) / rows;
+
+      for (int i = 0; i < n; i++) {
+         Polygon2D polygon = this.obstacles[i].getPolygon();
+         minX[i] = polygon.getMinX();
+         minY[i] = polygon.getMinY();
+         maxX[i] = polygon.getMaxX();
+         maxY[i] = polygon.getMaxY();
+      }
+
+      // count the obstacles per cell, then fill a compressed cell table
+      int[] counts = new int[columns * rows + 1];
+      for (int i = 0; i < n; i++) {
+         for (int r = row(minY[i]); r <= row(maxY[i]); r++) {
+            for (int c = column(minX[i]); c <= column(maxX[i]); c++) {
+               counts[r * columns + c + 1]++;
+            }
+         }
+      }
+      for (int c = 0; c < columns * rows; c++) {
+         counts[c + 1] += counts[c];
+      }
+      this.cellStart = counts;
+      this.cellItems = new int[counts[columns * rows]];
+
+      int[] fill = new int[columns * rows];
+      for (int i = 0; i < n; i++) {
+         for (int r = row(minY[i]); r <= row(maxY[i]); r++) {
+            for (int c = column(minX[i]); c <= column(maxX[i]); c++) {
+               int cell = r * columns + c;
+               cellItems[cellStart[cell] + fill[cell]++] = i;
+            }
+         }
+      }
+   }
+
+   private int column(double x) {
+      int c = (int) Math.floor((x - swX) / cellWidth);
+      return c < 0 ? 0 : c >= columns ? columns - 1 : c;
+   }
+
+   private int row(double y) {
+      int r = (int) Math.floor((y - swY) / cellHeight);
+      return r < 0 ? 0 : r >= rows ? rows - 1 : r;
+   }
+
+   public List<Obstacle> getObstacles() {
+      return List.of(obstacles);
+   }
+
+   public boolean intersects(Point2D start, Point2D end) {
+      return intersects(start.getX(), start.getY(), end.getX(), end.getY());
+   }
+
+   /**
+    * Returns true if the segment from (x1, y1) to (x2, y2) hits any obstacle.
+    * Only the obstacles registered in the cells covered by the segment's
+    * bounding box are tested, and each of them is tested at most once.
+    */
+   public boolean intersects(double x1, double y1, double x2, double y2) {
+      double loX = Math.min(x1, x2);
+      double loY = Math.min(y1, y2);
+      double hiX = Math.max(x1, x2);
+      double hiY = Math.max(y1, y2);
+
+      int c0 = column(loX);
+      int c1 = column(hiX);
+      int r0 = row(loY);
+      int r1 = row(hiY);
+
+      for (int r = r0; r <= r1; r++) {
+         for (int c = c0; c <= c1; c++) {
+            int cell = r * columns + c;
+            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+               int i = cellItems[k];
+               if (maxX[i] < loX || minX[i] > hiX || maxY[i] < loY || minY[i] > hiY) {
+                  continue;
+               }
+               // an obstacle spanning several cells is only tested in the first
+               // cell it shares with the query range
+               if (c != Math.max(c0, column(minX[i])) || r != Math.max(r0, row(minY[i]))) {
+                  continue;
+               }
+               if (obstacles[i].intersects(x1, y1, x2, y2)) {
+                  return true;
+               }
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns true if a circular arc hits any obstacle. The arc's exact
+    * bounding box selects the cells and obstacles to test.
+    *
+    * @see Polygon2D#intersectsArc(double, double, double, double, double)
+    */
+   public boolean intersectsArc(double cx, double cy, double radius, double startAngle,
+         double sweep) {
+      if (sweep < 0) {
+         startAngle += sweep;
+         sweep = -sweep;
+      }
+      double startX = Math.cos(startAngle);
+      double startY = Math.sin(startAngle);
+      double endX = Math.cos(startAngle + sweep);
+      double endY = Math.sin(startAngle + sweep);
+      double loX = cx + radius * Math.min(startX, endX);
+      double hiX = cx + radius * Math.max(startX, endX);
+      double loY = cy + radius * Math.min(startY, endY);
+      double hiY = cy + radius * Math.max(startY, endY);
+      // widen the box to each axis direction the arc passes through
+      double start = startAngle % TWO_PI;
+      if (start < 0) {
+         start += TWO_PI;
+      }
+      if (passes(start, sweep, 0)) {
+         hiX = cx + radius;
+      }
+      if (passes(start, sweep, Math.PI / 2)) {
+         hiY = cy + radius;
+      }
+      if (passes(start, sweep, Math.PI)) {
+         loX = cx - radius;
+      }
+      if (passes(start, sweep, 3 * Math.PI / 2)) {
+         loY = cy - radius;
+      }
+
+      int c0 = column(loX);
+      int c1 = column(hiX);
+      int r0 = row(loY);
+      int r1 = row(hiY);
+
+      for (int r = r0; r <= r1; r++) {
+         for (int c = c0; c <= c1; c++) {
+            int cell = r * columns + c;
+            for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+               int i = cellItems[k];
+               if (maxX[i] < loX || minX[i] > hiX || maxY[i] < loY || minY[i] > hiY) {
+                  continue;
+               }
+               if (c != Math.max(c0, column(minX[i])) || r != Math.max(r0, row(minY[i]))) {
+                  continue;
+               }
+               if (obstacles[i].intersectsArc(cx, cy, radius, startAngle, sweep)) {
+                  return true;
+               }
+            }
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns whether a counter-clockwise arc from a start angle in [0, 2 pi)
+    * passes through the given angle, also in [0, 2 pi).
+    */
+   private static boolean passes(double start, double sweep, double angle) {
+      double offset = angle - start;
+      return (offset < 0 ? offset + TWO_PI : offset) <= sweep;
+   }
+
+   /**
+    * Returns true if the Dubins curve the car drives from (x, y, theta) hits
+    * any obstacle. Straight pieces are tested as segments and turns as
+    * exact arcs.
+    *
+    * @param word   the word of the curve
+    * @param pieces the three piece lengths, as returned by
+    *               {@link ml.learning.dubinscar.geometry.DubinsPathSolver#solve(double, double,
+    *               double, double, double, double, double, double[])}
+    * @param radius the turning radius
+    */
+   public boolean intersectsDubins(double x, double y, double theta, Word word, double[] pieces,
+         double radius) {
+      for (int i = 0; i < 3; i++) {
+         double s = pieces[i];
+         if (s <= 0) {
+            continue;
+         }
+         int direction = word.direction(i);
+         if (direction == 0) {
+            double nextX = x + s * Math.cos(theta);
+            double nextY = y + s * Math.sin(theta);
+            if (intersects(x, y, nextX, nextY)) {
+               return true;
+            }
+            x = nextX;
+            y = nextY;
+         } else {
+            double cx = x - direction * radius * Math.sin(theta);
+            double cy = y + direction * radius * Math.cos(theta);
+            double sweep = direction * s / radius;
+            if (intersectsArc(cx, cy, radius, theta - direction * Math.PI / 2, sweep)) {
+               return true;
+            }
+            theta += sweep;
+            x = cx + direction * radius * Math.sin(theta);
+            y = cy - direction * radius * Math.cos(theta);
+         }
+      }
+      return false;
+   }
+
+   public boolean contains(Point2D point) {
+      return contains(point.getX(), point.getY());
+   }
+
+   /**
+    * Returns true if any obstacle contains the point (x, y).
+    */
+   public boolean contains(double x, double y) {
+      int cell = row(y) * columns + column(x);
+      for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+         int i = cellItems[k];
+         if (x >= minX[i] && x <= maxX[i] && y >= minY[i] && y <= maxY[i]
+               && obstacles[i].contains(x, y)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns every obstacle that contains the given point.
+    *
+    * @param point the point to look up
+    * @return the obstacles containing the point, in their original order
+    */
+   public List<Obstacle> obstaclesContaining(Point2D point) {
+      double x = point.getX();
+      double y = point.getY();
+      List<Obstacle> result = new ArrayList<>();
+      int cell = row(y) * columns + column(x);
+      for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+         int i = cellItems[k];
+         if (x >= minX[i] && x <= maxX[i] && y >= minY[i] && y <= maxY[i]
+               && obstacles[i].contains(x, y)) {
+            result.add(obstacles[i]);
+         }
+      }
+      return result;
+   }
+}
@@ -1,8 +1,15 @@
 package ml.learning.dubinscar.environment;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import ml.learning.dubinscar.geometry.Polygon2D;
+
+/**
+ * Decomposes simple polygons into triangles or convex pieces.
+ */
 public class PolygonDecomposer {
 
    /**
@@ -108,76 +115,163 @@ public class PolygonDecomposer {
    }
 
    /**
-    * Calculates the cross product of three points in 2D space. The cross product
-    * is a vector perpendicular to the plane defined by the three points. If the
-    * cross product is positive, the points are in counterclockwise order. If the
-    * cross product is negative, the points are in clockwise order. If the cross
-    * product is zero, the points are collinear.
+    * Returns twice the signed area of the triangle (a, b, c): positive if the
+    * points are in counter-clockwise order, negative if clockwise, and zero if
+    * they are collinear.
     *
-    * @param p1 the first point
-    * @param p2 the second point
-    * @param p3 the third point
-    * @return the cross product of the three points
+    * @param xs the x-coordinates of the vertices
+    * @param ys the y-coordinates of the vertices
+    * @param a  the index of the first point
+    * @param b  the index of the second point
+    * @param c  the index of the third point
+    * @return twice the signed area of the triangle
     */
-   private static double crossProduct(Point p1, Point p2, Point p3) {
-      return (p2.getX() - p1.getX()) * (p3.getY() - p2.getY())
-            - (p3.getX() - p2.getX()) * (p2.getY() - p1.getY());
+   private static double cross(double[] xs, double[] ys, int a, int b, int c) {
+      return (xs[b] - xs[a]) * (ys[c] - ys[a]) - (ys[b] - ys[a]) * (xs[c] - xs[a]);
    }
 
    /**
-    * Applies the ear-clipping algorithm to generate a set of triangles from a
-    * simple polygon represented as a list of points. Returns a list of Triangle
-    * objects, where each Triangle represents a set of three vertices that form a
-    * triangle. The algorithm works by iteratively removing "ears" from the polygon
-    * until no more triangles can be formed. Each "ear" is defined as a vertex with
-    * two adjacent edges that do not intersect any other edges in the polygon. This
-    * method assumes that the polygon is simple, i.e. it does not intersect itself,
-    * and that the vertices are listed in clockwise order.
+    * Returns twice the signed area of a polygon, positive if its vertices are in
+    * counter-clockwise order.
     *
-    * @param polygon A list of Point objects representing the vertices of the
-    *                polygon
-    * @return A list of Triangle objects representing the triangles formed by the
-    *         polygon
+    * @param xs the x-coordinates of the vertices
+    * @param ys the y-coordinates of the vertices
+    * @return twice the signed area of the polygon
     */
-   private static List<Triangle> earClipping(List<Point> polygon) {
-      List<Triangle> triangles = new ArrayList<>();
-
-      int n = polygon.size();
-      if (n < 3) {
-         return triangles;
+   private static double signedArea(double[] xs, double[] ys) {
+      double area = 0;
+      for (int i = 0, j = xs.length - 1; i < xs.length; j = i++) {
+         area += xs[j] * ys[i] - xs[i] * ys[j];
       }
+      return area;
+   }
+
+   /**
+    * Triangulates a simple polygon by ear clipping. The remaining vertices are
+    * kept in a doubly linked ring of indices, so clipping an ear is constant
+    * time, and only the reflex vertices are tested against a candidate ear,
+    * since a convex vertex can never lie inside one. A vertex only ever changes
+    * from reflex to convex as ears are clipped, so the reflex list just
+    * shrinks. If a full lap around the ring finds no ear, which only happens
+    * for polygons that are not simple, the current vertex is clipped anyway, so
+    * the method always returns n - 2 triangles.
+    *
+    * @param xs the x-coordinates of the vertices, in either orientation
+    * @param ys the y-coordinates of the vertices
+    * @return the vertex indices of the triangles, three per triangle, each
+    *         triangle in counter-clockwise order
+    */
+   private static int[] earClipping(double[] xs, double[] ys) {
+      int n = xs.length;
+      int[] triangles = new int[3 * (n - 2)];
 
-      List<Point> vertices = new ArrayList<>(polygon); // make a copy
+      // link the ring counter-clockwise whatever the input orientation
+      boolean counterClockwise = signedArea(xs, ys) >= 0;
       int[] next = new int[n];
       int[] prev = new int[n];
       for (int i = 0; i < n; i++) {
-         next[i] = (i + 1) % n;
-         prev[i] = (i - 1 + n) % n;
-      }
-
-      int i = 0;
-      while (vertices.size() >= 3 && i < n) {
-         Point a = vertices.get(prev[i]);
-         Point b = vertices.get(i);
-         Point c = vertices.get(next[i]);
-
-         if (isEar(a, b, c, vertices)) {
-            triangles.add(new Triangle(a, b, c));
-            vertices.remove(i);
-            next[prev[i]] = next[i];
-            prev[next[i]] = prev[i];
-         } else {
-            i = next[i];
+         next[i] = counterClockwise ? (i + 1) % n : (i - 1 + n) % n;
+         prev[i] = counterClockwise ? (i - 1 + n) % n : (i + 1) % n;
+      }
+
+      boolean[] reflex = new boolean[n];
+      int[] reflexVertices = new int[n];
+      int reflexCount = 0;
+      for (int i = 0; i < n; i++) {
+         if (cross(xs, ys, prev[i], i, next[i]) < 0) {
+            reflex[i] = true;
+            reflexVertices[reflexCount++] = i;
          }
       }
 
+      int t = 0;
+      int v = 0;
+      int remaining = n;
+      int sinceClip = 0;
+      while (remaining > 3) {
+         int a = prev[v];
+         int c = next[v];
+         boolean stuck = sinceClip >= remaining;
+         if (!stuck && (reflex[v] || !isEar(xs, ys, a, v, c, reflex, reflexVertices,
+               reflexCount))) {
+            v = c;
+            sinceClip++;
+            continue;
+         }
+
+         triangles[t++] = a;
+         triangles[t++] = v;
+         triangles[t++] = c;
+         next[a] = c;
+         prev[c] = a;
+         reflex[v] = false;
+         remaining--;
+         sinceClip = 0;
+
+         // the neighbours may have become convex
+         boolean changed = false;
+         for (int w : new int[] { a, c }) {
+            if (reflex[w] && cross(xs, ys, prev[w], w, next[w]) >= 0) {
+               reflex[w] = false;
+               changed = true;
+            }
+         }
+         if (changed || stuck) {
+            reflexCount = compact(reflexVertices, reflexCount, reflex);
+         }
+         v = a;
+      }
+      triangles[t++] = prev[v];
+      triangles[t++] = v;
+      triangles[t] = next[v];
       return triangles;
    }
 
+   /**
+    * Removes the vertices that are no longer reflex from the reflex list.
+    *
+    * @return the new length of the list
+    */
+   private static int compact(int[] reflexVertices, int reflexCount, boolean[] reflex) {
+      int kept = 0;
+      for (int k = 0; k < reflexCount; k++) {
+         if (reflex[reflexVertices[k]]) {
+            reflexVertices[kept++] = reflexVertices[k];
+         }
+      }
+      return kept;
+   }
+
+   /**
+    * Returns true if the convex corner (a, b, c) of the ring is an ear, that
+    * is, if no reflex vertex other than a and c lies inside or on the triangle.
+    *
+    * @param xs             the x-coordinates of the vertices
+    * @param ys             the y-coordinates of the vertices
+    * @param a              the vertex before the candidate
+    * @param b              the candidate vertex
+    * @param c              the vertex after the candidate
+    * @param reflex         which vertices are currently reflex
+    * @param reflexVertices the currently reflex vertices, from index 0
+    * @param reflexCount    the number of entries in reflexVertices
+    * @return true if the corner is an ear
+    */
+   private static boolean isEar(double[] xs, double[] ys, int a, int b, int c, boolean[] reflex,
+         int[] reflexVertices, int reflexCount) {
+      for (int k = 0; k < reflexCount; k++) {
+         int p = reflexVertices[k];
+         if (p != a && p != c && reflex[p] && cross(xs, ys, a, b, p) >= 0
+               && cross(xs, ys, b, c, p) >= 0 && cross(xs, ys, c, a, p) >= 0) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    /**
     * Determines if a given polygon represented by a list of points is convex or
     * not. A polygon is convex if every interior angle is less than or equal to 180
-    * degrees.
+    * degrees, in either orientation.
     *
     * @param points The list of points that make up the polygon.
     * @return true if the polygon is convex, false otherwise.
@@ -187,108 +281,252 @@ public class PolygonDecomposer {
       if (size < 3) {
          return false;
       }
-      boolean sign = false;
+      double[] xs = xs(points);
+      double[] ys = ys(points);
+      boolean left = false;
+      boolean right = false;
       for (int i = 0; i < size; i++) {
-         Point p1 = points.get(i);
-         Point p2 = points.get((i + 1) % size);
-         Point p3 = points.get((i + 2) % size);
-         double crossProduct = crossProduct(p1, p2, p3);
-         if (crossProduct != 0) {
-            if (sign) {
-               if (crossProduct < 0) {
-                  return false;
-               }
-            } else {
-               sign = crossProduct > 0;
-            }
-         }
+         double cross = cross(xs, ys, i, (i + 1) % size, (i + 2) % size);
+         left |= cross > 0;
+         right |= cross < 0;
       }
-      return true;
+      return !(left && right);
+   }
+
+   private static double[] xs(List<Point> points) {
+      double[] xs = new double[points.size()];
+      for (int i = 0; i < xs.length; i++) {
+         xs[i] = points.get(i).getX();
+      }
+      return xs;
+   }
+
+   private static double[] ys(List<Point> points) {
+      double[] ys = new double[points.size()];
+      for (int i = 0; i < ys.length; i++) {
+         ys[i] = points.get(i).getY();
+      }
+      return ys;
    }
 
    /**
-    * Returns a boolean value indicating whether a triangle formed by points a, b,
-    * and c is an ear in a given polygon. An ear is a triangle whose vertices are
-    * the first, last, and one other point in a given polygon and contains no other
-    * points within it.
+    * Triangulates a simple polygon, given in either orientation, by ear
+    * clipping. A polygon of n vertices gives n - 2 triangles, each with its
+    * vertices in the polygon's orientation.
     *
-    * @param a        The first point of the triangle.
-    * @param b        The second point of the triangle.
-    * @param c        The third point of the triangle.
-    * @param vertices A list of points representing the vertices of the polygon.
-    * @return true if the triangle is an ear in the polygon, false otherwise.
+    * @param polygon a list of points representing the vertices of the polygon
+    * @return a list of triangles that make up the polygon
+    * @throws IllegalArgumentException if the given polygon has less than 3 points
     */
-   private static boolean isEar(Point a, Point b, Point c, List<Point> vertices) {
-      /*
-       * Check whether the signed area of the triangle is negative. If the area is
-       * negative, it means that the triangle is oriented clockwise and thus is not a
-       * valid ear since the polygon is assumed to be counter-clockwise.
-       */
-      double area = signedArea(a, b, c);
-      if (area >= 0) {
-         return false;
+   public static List<Triangle> triangulate(List<Point> polygon) throws IllegalArgumentException {
+      checkSize(polygon.size());
+      double[] xs = xs(polygon);
+      double[] ys = ys(polygon);
+      int[] corners = earClipping(xs, ys);
+      boolean counterClockwise = signedArea(xs, ys) >= 0;
+
+      List<Triangle> triangles = new ArrayList<>(corners.length / 3);
+      for (int t = 0; t < corners.length; t += 3) {
+         Point a = polygon.get(corners[t]);
+         Point b = polygon.get(corners[t + 1]);
+         Point c = polygon.get(corners[t + 2]);
+         triangles.add(counterClockwise ? new Triangle(a, b, c) : new Triangle(c, b, a));
       }
-      /*
-       * Check whether any other points of the polygon are located inside the triangle
-       * formed by points a, b, and c. If any point is inside the triangle, it means
-       * that the triangle is not an ear.
-       */
-      for (Point p : vertices) {
-         if (p != a && p != b && p != c && isPointInTriangle(p, a, b, c)) {
-            return false;
+      return triangles;
+   }
+
+   private static void checkSize(int size) {
+      if (size < 3) {
+         throw new IllegalArgumentException("a polygon needs at least 3 points, got " + size);
+      }
+   }
+
+   /**
+    * Partitions a simple polygon, given in either orientation, into convex
+    * pieces with the Hertel-Mehlhorn algorithm: the polygon is triangulated,
+    * then every diagonal whose removal leaves both of its end points convex is
+    * removed, merging the pieces on either side. The result has at most four
+    * times as many pieces as an optimal partition, and usually far fewer than
+    * the triangulation. A convex polygon is returned as its only piece.
+    *
+    * @param polygon the vertices of the polygon
+    * @return the vertices of each convex piece, in the polygon's orientation
+    * @throws IllegalArgumentException if the polygon has less than 3 points
+    */
+   public static List<List<Point>> convexPartition(List<Point> polygon)
+         throws IllegalArgumentException {
+      checkSize(polygon.size());
+      if (isConvex(polygon)) {
+         return List.of(new ArrayList<>(polygon));
+      }
+      double[] xs = xs(polygon);
+      double[] ys = ys(polygon);
+      boolean counterClockwise = signedArea(xs, ys) >= 0;
+
+      List<List<Point>> pieces = new ArrayList<>();
+      for (int[] ring : convexPieces(xs, ys)) {
+         List<Point> piece = new ArrayList<>(ring.length);
+         for (int i = 0; i < ring.length; i++) {
+            piece.add(polygon.get(ring[counterClockwise ? i : ring.length - 1 - i]));
          }
+         pieces.add(piece);
       }
-      return true;
+      return pieces;
    }
 
    /**
-    * Returns a boolean value indicating whether a given point p is inside a
-    * triangle formed by points a, b, and c.
+    * Partitions a simple polygon into convex pieces; see
+    * {@link #convexPartition(List)}.
     *
-    * @param p The point to check.
-    * @param a The first point of the triangle.
-    * @param b The second point of the triangle.
-    * @param c The third point of the triangle.
-    * @return true if the point is inside the triangle, false otherwise.
+    * @param polygon the polygon
+    * @return the convex pieces, in the polygon's orientation
+    * @throws IllegalArgumentException if the polygon has less than 3 vertices
     */
-   private static boolean isPointInTriangle(Point p, Point a, Point b, Point c) {
-      /*
-       * Calculate the signed areas of the subtriangles formed by point p and each
-       * pair of vertices of the triangle formed by points a, b, and c. If the sum of
-       * the signed areas is equal to the signed area of the original triangle, it
-       * means that point p is inside the triangle.
-       */
-      double alpha = signedArea(p, b, c);
-      double beta = signedArea(p, c, a);
-      double gamma = signedArea(p, a, b);
-      return alpha >= 0 && beta >= 0 && gamma >= 0 || alpha <= 0 && beta <= 0 && gamma <= 0;
+   public static List<Polygon2D> convexPartition(Polygon2D polygon)
+         throws IllegalArgumentException {
+      int n = polygon.getVertexCount();
+      checkSize(n);
+      double[] xs = new double[n];
+      double[] ys = new double[n];
+      for (int i = 0; i < n; i++) {
+         xs[i] = polygon.getX(i);
+         ys[i] = polygon.getY(i);
+      }
+      boolean counterClockwise = signedArea(xs, ys) >= 0;
+
+      List<Polygon2D> pieces = new ArrayList<>();
+      for (int[] ring : convexPieces(xs, ys)) {
+         double[] px = new double[ring.length];
+         double[] py = new double[ring.length];
+         for (int i = 0; i < ring.length; i++) {
+            int vertex = ring[counterClockwise ? i : ring.length - 1 - i];
+            px[i] = xs[vertex];
+            py[i] = ys[vertex];
+         }
+         pieces.add(new Polygon2D(px, py));
+      }
+      return pieces;
    }
 
    /**
-    * Returns the signed area of a triangle formed by points a, b, and c using the
-    * formula: <br>
-    * (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x)
+    * Runs Hertel-Mehlhorn over the polygon's triangulation. Pieces are rings of
+    * vertex indices in counter-clockwise order; merged pieces are tracked with a
+    * union-find over the triangles, the root of each set holding its ring.
     *
-    * @param a The first point of the triangle.
-    * @param b The second point of the triangle.
-    * @param c The third point of the triangle.
-    * @return The signed area of the triangle.
+    * @param xs the x-coordinates of the vertices
+    * @param ys the y-coordinates of the vertices
+    * @return the rings of the convex pieces
     */
-   private static double signedArea(Point a, Point b, Point c) {
-      return (b.x - a.x) * (c.y - a.y) - (b.y - a.y) * (c.x - a.x);
+   private static List<int[]> convexPieces(double[] xs, double[] ys) {
+      int n = xs.length;
+      int[] corners = earClipping(xs, ys);
+      int triangleCount = corners.length / 3;
+      int[][] rings = new int[triangleCount][];
+      int[] parent = new int[triangleCount];
+      for (int t = 0; t < triangleCount; t++) {
+         rings[t] = new int[] { corners[3 * t], corners[3 * t + 1], corners[3 * t + 2] };
+         parent[t] = t;
+      }
+
+      // every edge shared by two triangles is a diagonal
+      Map<Long, Integer> edges = new HashMap<>();
+      List<int[]> diagonals = new ArrayList<>();
+      for (int t = 0; t < triangleCount; t++) {
+         for (int k = 0; k < 3; k++) {
+            int u = corners[3 * t + k];
+            int v = corners[3 * t + (k + 1) % 3];
+            if (Math.abs(u - v) == 1 || Math.abs(u - v) == n - 1) {
+               continue;
+            }
+            long key = (long) Math.min(u, v) * n + Math.max(u, v);
+            Integer other = edges.remove(key);
+            if (other == null) {
+               edges.put(key, t);
+            } else {
+               diagonals.add(new int[] { other, t, u, v });
+            }
+         }
+      }
+
+      for (int[] diagonal : diagonals) {
+         int p = find(parent, diagonal[0]);
+         int q = find(parent, diagonal[1]);
+         int[] merged = p == q ? null
+               : merge(xs, ys, rings[p], rings[q], diagonal[2], diagonal[3]);
+         if (merged != null) {
+            parent[q] = p;
+            rings[p] = merged;
+            rings[q] = null;
+         }
+      }
+
+      List<int[]> pieces = new ArrayList<>();
+      for (int t = 0; t < triangleCount; t++) {
+         if (parent[t] == t) {
+            pieces.add(rings[t]);
+         }
+      }
+      return pieces;
+   }
+
+   private static int find(int[] parent, int t) {
+      while (parent[t] != t) {
+         parent[t] = parent[parent[t]];
+         t = parent[t];
+      }
+      return t;
    }
 
    /**
-    * Triangulates a given polygon into a list of triangles using ear-clipping. The
-    * resulting list of triangles is then returned.
+    * Merges two counter-clockwise rings that share the diagonal (u, v), or
+    * returns null if the merged ring would be reflex at u or v.
     *
-    * @param polygon a list of points representing the vertices of the polygon
-    * @return a list of triangles that make up the polygon
-    * @throws IllegalArgumentException if the given polygon has less than 3 points
+    * @param xs the x-coordinates of the vertices
+    * @param ys the y-coordinates of the vertices
+    * @param p  one ring
+    * @param q  the other ring
+    * @param u  one end of the diagonal
+    * @param v  the other end of the diagonal
+    * @return the merged ring, or null
     */
-   public static List<Triangle> triangulate(List<Point> polygon) throws IllegalArgumentException {
-      // Polygon is already convex, so just apply the ear-clipping algorithm directly
-      return earClipping(polygon);
+   private static int[] merge(double[] xs, double[] ys, int[] p, int[] q, int u, int v) {
+      // orient the diagonal so that p runs from u to v and q back from v to u
+      int i = indexOf(p, u);
+      if (p[(i + 1) % p.length] != v) {
+         int swap = u;
+         u = v;
+         v = swap;
+         i = indexOf(p, u);
+      }
+      int j = indexOf(q, v);
+
+      int beforeU = p[(i - 1 + p.length) % p.length];
+      int afterU = q[(j + 2) % q.length];
+      int beforeV = q[(j - 1 + q.length) % q.length];
+      int afterV = p[(i + 2) % p.length];
+      if (cross(xs, ys, beforeU, u, afterU) < 0 || cross(xs, ys, beforeV, v, afterV) < 0) {
+         return null;
+      }
+
+      // p from v round to u, then q from after u round to before v
+      int[] merged = new int[p.length + q.length - 2];
+      int m = 0;
+      for (int k = 1; k <= p.length; k++) {
+         merged[m++] = p[(i + k) % p.length];
+      }
+      for (int k = 2; k < q.length; k++) {
+         merged[m++] = q[(j + k) % q.length];
+      }
+      return merged;
+   }
+
+   private static int indexOf(int[] ring, int vertex) {
+      for (int i = 0; i < ring.length; i++) {
+         if (ring[i] == vertex) {
+            return i;
+         }
+      }
+      throw new IllegalStateException("vertex " + vertex + " is not in the piece");
    }
 
 }
@@ -0,0 +1,282 @@
+package ml.learning.dubinscar.environment;
+
+import java.awt.geom.Point2D;
+import java.util.Arrays;
+import java.util.List;
+
+import ml.learning.dubinscar.geometry.DubinsPathSolver.Word;
+import ml.learning.dubinscar.geometry.Polygon2D;
+
+/**
+ * A raster cost map of the op-area: a uniform grid holding, per cell, the
+ * factor the car's speed is multiplied by there. Speed reduction regions and
+ * obstacles are scanline-rasterized once, by cell centre; where polygons
+ * overlap the slowest factor wins, and a factor of 0 makes a cell
+ * impassable. Outside the op-area the car drives at full speed. Lookups are a
+ * single array read, and segments are integrated cell by cell, so travel
+ * times cost no polygon tests. The map is immutable once built and may be
+ * shared between threads.
+ */
+public class SpeedMap {
+
+   public static final int DEFAULT_RESOLUTION = 64;
+
+   private final double swX;
+   private final double swY;
+   private final double neX;
+   private final double neY;
+   private final double cellWidth;
+   private final double cellHeight;
+   private final int columns;
+   private final int rows;
+
+   // speed factor and its reciprocal per cell, row-major
+   private final float[] factors;
+   private final float[] slowness;
+
+   // true if every cell is at full speed
+   private final boolean uniform;
+
+   public SpeedMap(List<Obstacle> obstacles, List<SpeedReductionRegion> regions,
+         Point2D swPoint, Point2D nePoint) {
+      this(obstacles, regions, swPoint, nePoint, DEFAULT_RESOLUTION);
+   }
+
+   /**
+    * Rasterizes the given obstacles and regions.
+    *
+    * @param obstacles  the obstacles, rasterized with their speed reduction
+    * @param regions    the speed reduction regions
+    * @param swPoint    the south-west corner of the op-area
+    * @param nePoint    the north-east corner of the op-area
+    * @param resolution the number of cells along each side of the op-area
+    */
+   public SpeedMap(List<Obstacle> obstacles, List<SpeedReductionRegion> regions,
+         Point2D swPoint, Point2D nePoint, int resolution) {
+      if (resolution < 1) {
+         throw new IllegalArgumentException("resolution must be positive: " + resolution);
+      }
+
+      this.swX = swPoint.getX();
+      this.swY = swPoint.getY();
+      this.neX = nePoint.getX();
+      this.neY = nePoint.getY();
+      this.columns = resolution;
+      this.rows = resolution;
+      this.cellWidth = Math.max(neX - swX, Double.MIN_NORMAL) / columns;
+      this.cellHeight = Math.max(neY - swY, Double.MIN_NORMAL) / rows;
+
+      this.factors = new float[columns * rows];
+      Arrays.fill(factors, 1);
+      double[] crossings = new double[8];
+      for (Obstacle obstacle : obstacles) {
+         crossings = rasterize(obstacle.getPolygon(), obstacle.getSpeedReduction(), crossings);
+      }
+      for (SpeedReductionRegion region : regions) {
+         crossings = rasterize(region.getPolygon(), region.getReductionFactor(), crossings);
+      }
+
+      this.slowness = new float[factors.length];
+      boolean full = true;
+      for (int c = 0; c < factors.length; c++) {
+         slowness[c] = 1 / factors[c];
+         full &= factors[c] == 1;
+      }
+      this.uniform = full;
+   }
+
+   /**
+    * Lowers every cell whose centre lies in the polygon to the given factor,
+    * by the even-odd rule along each row's centre line. Returns the crossings
+    * buffer, grown if the polygon needed more room.
+    */
+   private double[] rasterize(Polygon2D polygon, double factor, double[] crossings) {
+      float value = (float) Math.max(0, Math.min(1, factor));
+      int n = polygon.getVertexCount();
+      if (crossings.length < n) {
+         crossings = new double[n];
+      }
+
+      int r0 = Math.max(0, (int) Math.floor((polygon.getMinY() - swY) / cellHeight));
+      int r1 = Math.min(rows - 1, (int) Math.floor((polygon.getMaxY() - swY) / cellHeight));
+      for (int r = r0; r <= r1; r++) {
+         double y = swY + (r + 0.5) * cellHeight;
+         int count = 0;
+         for (int i = 0; i < n; i++) {
+            int j = i + 1 == n ? 0 : i + 1;
+            double ay = polygon.getY(i);
+            double by = polygon.getY(j);
+            // half-open, so a vertex on the centre line is counted once
+            if (ay <= y && y < by || by <= y && y < ay) {
+               double ax = polygon.getX(i);
+               crossings[count++] = ax + (y - ay) * (polygon.getX(j) - ax) / (by - ay);
+            }
+         }
+         Arrays.sort(crossings, 0, count);
+
+         for (int k = 0; k + 1 < count; k += 2) {
+            // the cells whose centres lie in [crossings[k], crossings[k + 1])
+            int c0 = Math.max(0, (int) Math.ceil((crossings[k] - swX) / cellWidth - 0.5));
+            int c1 = Math.min(columns,
+                  (int) Math.ceil((crossings[k + 1] - swX) / cellWidth - 0.5));
+            for (int c = c0; c < c1; c++) {
+               int cell = r * columns + c;
+               factors[cell] = Math.min(factors[cell], value);
+            }
+         }
+      }
+      return crossings;
+   }
+
+   private int column(double x) {
+      int c = (int) Math.floor((x - swX) / cellWidth);
+      return c < 0 ? 0 : c >= columns ? columns - 1 : c;
+   }
+
+   private int row(double y) {
+      int r = (int) Math.floor((y - swY) / cellHeight);
+      return r < 0 ? 0 : r >= rows ? rows - 1 : r;
+   }
+
+   /**
+    * Returns the speed factor at (x, y): 1 at full speed, 0 where the car
+    * cannot drive.
+    */
+   public double getFactor(double x, double y) {
+      if (x < swX || x > neX || y < swY || y > neY) {
+         return 1;
+      }
+      return factors[row(y) * columns + column(x)];
+   }
+
+   /**
+    * Returns the distance the car would cover at full speed in the time it
+    * takes to drive the segment from (x1, y1) to (x2, y2), that is the length
+    * of the segment weighted by the reciprocal of the speed factor along it.
+    * The segment is walked cell by cell through the grid. Returns positive
+    * infinity if the segment crosses an impassable cell.
+    */
+   public double integrate(double x1, double y1, double x2, double y2) {
+      double dx = x2 - x1;
+      double dy = y2 - y1;
+      double length = Math.sqrt(dx * dx + dy * dy);
+      if (uniform || length == 0) {
+         return length;
+      }
+
+      // clip the segment's parameter range to the op-area
+      double t0 = 0;
+      double t1 = 1;
+      if (dx == 0) {
+         if (x1 < swX || x1 > neX) {
+            return length;
+         }
+      } else {
+         double a = (swX - x1) / dx;
+         double b = (neX - x1) / dx;
+         t0 = Math.max(t0, Math.min(a, b));
+         t1 = Math.min(t1, Math.max(a, b));
+      }
+      if (dy == 0) {
+         if (y1 < swY || y1 > neY) {
+            return length;
+         }
+      } else {
+         double a = (swY - y1) / dy;
+         double b = (neY - y1) / dy;
+         t0 = Math.max(t0, Math.min(a, b));
+         t1 = Math.min(t1, Math.max(a, b));
+      }
+      if (t0 >= t1) {
+         return length;
+      }
+
+      // step from cell boundary to cell boundary, in segment parameter units
+      double t = t0;
+      int c = column(x1 + t * dx);
+      int r = row(y1 + t * dy);
+      int stepC = dx > 0 ? 1 : -1;
+      int stepR = dy > 0 ? 1 : -1;
+      double nextC = dx == 0 ? Double.POSITIVE_INFINITY
+            : (swX + (dx > 0 ? c + 1 : c) * cellWidth - x1) / dx;
+      double nextR = dy == 0 ? Double.POSITIVE_INFINITY
+            : (swY + (dy > 0 ? r + 1 : r) * cellHeight - y1) / dy;
+      double deltaC = cellWidth / Math.abs(dx);
+      double deltaR = cellHeight / Math.abs(dy);
+
+      double weighted = 0;
+      while (true) {
+         double next = Math.min(t1, Math.min(nextC, nextR));
+         if (next > t) {
+            weighted += (next - t) * slowness[r * columns + c];
+         }
+         if (next >= t1) {
+            break;
+         }
+         t = next;
+         if (nextC <= nextR) {
+            c += stepC;
+            nextC += deltaC;
+         } else {
+            r += stepR;
+            nextR += deltaR;
+         }
+         if (c < 0 || c >= columns || r < 0 || r >= rows) {
+            break;
+         }
+      }
+      return length * (1 - (t1 - t0)) + length * weighted;
+   }
+
+   /**
+    * Integrates the Dubins curve the car drives from (x, y, theta), like
+    * {@link #integrate(double, double, double, double)}. Straight pieces are
+    * integrated exactly and turns approximately, as chords no longer than a
+    * cell, each scaled up to the length of its arc.
+    *
+    * @param word   the word of the curve
+    * @param pieces the three piece lengths
+    * @param radius the turning radius
+    */
+   public double integrateDubins(double x, double y, double theta, Word word, double[] pieces,
+         double radius) {
+      double total = pieces[0] + pieces[1] + pieces[2];
+      if (uniform) {
+         return total;
+      }
+
+      double cell = Math.min(cellWidth, cellHeight);
+      double weighted = 0;
+      for (int i = 0; i < 3; i++) {
+         double s = pieces[i];
+         if (s <= 0) {
+            continue;
+         }
+         int direction = word.direction(i);
+         if (direction == 0) {
+            double nextX = x + s * Math.cos(theta);
+            double nextY = y + s * Math.sin(theta);
+            weighted += integrate(x, y, nextX, nextY);
+            x = nextX;
+            y = nextY;
+            continue;
+         }
+
+         double cx = x - direction * radius * Math.sin(theta);
+         double cy = y + direction * radius * Math.cos(theta);
+         int chords = (int) Math.ceil(s / cell);
+         double turn = direction * s / radius / chords;
+         // arc length over chord length for each chord
+         double scale = s < 1e-9 ? 1 : (s / chords) / (2 * radius * Math.sin(Math.abs(turn) / 2));
+         for (int k = 0; k < chords; k++) {
+            theta += turn;
+            double nextX = cx + direction * radius * Math.sin(theta);
+            double nextY = cy - direction * radius * Math.cos(theta);
+            weighted += scale * integrate(x, y, nextX, nextY);
+            x = nextX;
+            y = nextY;
+         }
+      }
+      return weighted;
+   }
+}
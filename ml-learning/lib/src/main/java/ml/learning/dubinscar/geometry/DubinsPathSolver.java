@@ -0,0 +1,252 @@
+package ml.learning.dubinscar.geometry;
+
+/**
+ * Computes shortest Dubins paths in closed form. A Dubins path between two
+ * configurations (x, y, heading) is made of three pieces, each a left turn (L),
+ * a right turn (R) or a straight line (S) at the car's minimum turning radius;
+ * the shortest one is always one of the six words LSL, RSR, LSR, RSL, RLR and
+ * LRL. Headings are measured counter-clockwise from the x-axis, as in
+ * {@link DubinsCar#update(double, double, double)}.
+ */
+public class DubinsPathSolver {
+
+   /**
+    * The six candidate Dubins words.
+    */
+   public enum Word {
+      LSL, RSR, LSR, RSL, RLR, LRL;
+
+      private static final Word[] VALUES = values();
+
+      /**
+       * Returns the turning direction of the given piece: 1 for a left turn, -1
+       * for a right turn and 0 for a straight line.
+       *
+       * @param piece the piece index, 0 to 2
+       * @return the turning direction of the piece
+       */
+      public int direction(int piece) {
+         char c = name().charAt(piece);
+         return c == 'L' ? 1 : c == 'R' ? -1 : 0;
+      }
+   }
+
+   private static final double TWO_PI = 2 * Math.PI;
+
+   private static double mod2pi(double angle) {
+      double r = angle % TWO_PI;
+      return r < 0 ? r + TWO_PI : r;
+   }
+
+   /**
+    * Returns the length of the shortest Dubins path from one waypoint to
+    * another.
+    *
+    * @param from   the start waypoint
+    * @param to     the end waypoint
+    * @param radius the minimum turning radius, e.g. {@link DubinsCar#getRadius()}
+    * @return the length of the shortest path
+    */
+   public static double shortestLength(Waypoint from, Waypoint to, double radius) {
+      return shortestLength(from.getX(), from.getY(), from.getOrientation(), to.getX(), to.getY(),
+            to.getOrientation(), radius);
+   }
+
+   public static double shortestLength(double x0, double y0, double theta0, double x1, double y1,
+         double theta1, double radius) {
+      return solve(x0, y0, theta0, x1, y1, theta1, radius, null, false);
+   }
+
+   /**
+    * Computes the lengths of the shortest Dubins paths for many pairs of
+    * configurations. Configurations are packed as (x, y, heading) triples.
+    *
+    * @param starts  the start configurations, 3 values each
+    * @param ends    the end configurations, 3 values each
+    * @param count   the number of pairs
+    * @param radius  the minimum turning radius
+    * @param lengths receives the length of each shortest path
+    */
+   public static void shortestLengths(double[] starts, double[] ends, int count, double radius,
+         double[] lengths) {
+      for (int i = 0; i < count; i++) {
+         int k = 3 * i;
+         lengths[i] = solve(starts[k], starts[k + 1], starts[k + 2], ends[k], ends[k + 1],
+               ends[k + 2], radius, null, false);
+      }
+   }
+
+   /**
+    * Returns the shortest Dubins path from one configuration to another,
+    * writing the lengths of its three pieces, in distance units, into
+    * {@code pieces}. Turning pieces cover an angle of {@code length / radius}.
+    *
+    * @param pieces receives the three piece lengths
+    * @return the word of the shortest path
+    */
+   public static Word solve(double x0, double y0, double theta0, double x1, double y1,
+         double theta1, double radius, double[] pieces) {
+      int word = (int) solve(x0, y0, theta0, x1, y1, theta1, radius, pieces, true);
+      pieces[0] *= radius;
+      pieces[1] *= radius;
+      pieces[2] *= radius;
+      return Word.VALUES[word];
+   }
+
+   /**
+    * Writes the configuration reached after driving a given distance along a
+    * Dubins path into {@code out} as (x, y, heading).
+    *
+    * @param x        the start x-coordinate
+    * @param y        the start y-coordinate
+    * @param theta    the start heading
+    * @param word     the word of the path
+    * @param pieces   the three piece lengths, as returned by
+    *                 {@link #solve(double, double, double, double, double, double, double, double[])}
+    * @param radius   the turning radius
+    * @param distance how far along the path to go
+    * @param out      receives the configuration
+    */
+   public static void sample(double x, double y, double theta, Word word, double[] pieces,
+         double radius, double distance, double[] out) {
+      for (int i = 0; i < 3 && distance > 0; i++) {
+         double s = Math.min(distance, pieces[i]);
+         distance -= s;
+         int direction = word.direction(i);
+         if (direction == 0) {
+            x += s * Math.cos(theta);
+            y += s * Math.sin(theta);
+         } else {
+            double next = theta + direction * s / radius;
+            x += direction * radius * (Math.sin(next) - Math.sin(theta));
+            y += direction * radius * (Math.cos(theta) - Math.cos(next));
+            theta = next;
+         }
+      }
+      out[0] = x;
+      out[1] = y;
+      out[2] = mod2pi(theta);
+   }
+
+   /**
+    * Evaluates all six words and returns the length of the shortest one, or its
+    * ordinal if {@code returnWord} is set. If {@code best} is not null it
+    * receives the pieces of the shortest word, normalized by the radius.
+    */
+   private static double solve(double x0, double y0, double theta0, double x1, double y1,
+         double theta1, double radius, double[] best, boolean returnWord) {
+      double dx = x1 - x0;
+      double dy = y1 - y0;
+      double d = Math.sqrt(dx * dx + dy * dy) / radius;
+      double theta = d > 0 ? mod2pi(Math.atan2(dy, dx)) : 0;
+      double alpha = mod2pi(theta0 - theta);
+      double beta = mod2pi(theta1 - theta);
+
+      double sa = Math.sin(alpha);
+      double sb = Math.sin(beta);
+      double ca = Math.cos(alpha);
+      double cb = Math.cos(beta);
+      double cab = Math.cos(alpha - beta);
+      double dSq = d * d;
+
+      double bestLength = Double.POSITIVE_INFINITY;
+      int bestWord = 0;
+      double t;
+      double p;
+      double q;
+
+      // LSL
+      double pSq = 2 + dSq - 2 * cab + 2 * d * (sa - sb);
+      if (pSq >= 0) {
+         double tmp = Math.atan2(cb - ca, d + sa - sb);
+         t = mod2pi(tmp - alpha);
+         p = Math.sqrt(pSq);
+         q = mod2pi(beta - tmp);
+         if (t + p + q < bestLength) {
+            bestLength = t + p + q;
+            bestWord = 0;
+            record(best, t, p, q);
+         }
+      }
+
+      // RSR
+      pSq = 2 + dSq - 2 * cab + 2 * d * (sb - sa);
+      if (pSq >= 0) {
+         double tmp = Math.atan2(ca - cb, d - sa + sb);
+         t = mod2pi(alpha - tmp);
+         p = Math.sqrt(pSq);
+         q = mod2pi(tmp - beta);
+         if (t + p + q < bestLength) {
+            bestLength = t + p + q;
+            bestWord = 1;
+            record(best, t, p, q);
+         }
+      }
+
+      // LSR
+      pSq = -2 + dSq + 2 * cab + 2 * d * (sa + sb);
+      if (pSq >= 0) {
+         p = Math.sqrt(pSq);
+         double tmp = Math.atan2(-ca - cb, d + sa + sb) - Math.atan2(-2, p);
+         t = mod2pi(tmp - alpha);
+         q = mod2pi(tmp - beta);
+         if (t + p + q < bestLength) {
+            bestLength = t + p + q;
+            bestWord = 2;
+            record(best, t, p, q);
+         }
+      }
+
+      // RSL
+      pSq = -2 + dSq + 2 * cab - 2 * d * (sa + sb);
+      if (pSq >= 0) {
+         p = Math.sqrt(pSq);
+         double tmp = Math.atan2(ca + cb, d - sa - sb) - Math.atan2(2, p);
+         t = mod2pi(alpha - tmp);
+         q = mod2pi(beta - tmp);
+         if (t + p + q < bestLength) {
+            bestLength = t + p + q;
+            bestWord = 3;
+            record(best, t, p, q);
+         }
+      }
+
+      // RLR
+      double tmp = (6 - dSq + 2 * cab + 2 * d * (sa - sb)) / 8;
+      if (Math.abs(tmp) <= 1) {
+         double phi = Math.atan2(ca - cb, d - sa + sb);
+         p = mod2pi(TWO_PI - Math.acos(tmp));
+         t = mod2pi(alpha - phi + mod2pi(p / 2));
+         q = mod2pi(alpha - beta - t + p);
+         if (t + p + q < bestLength) {
+            bestLength = t + p + q;
+            bestWord = 4;
+            record(best, t, p, q);
+         }
+      }
+
+      // LRL
+      tmp = (6 - dSq + 2 * cab + 2 * d * (sb - sa)) / 8;
+      if (Math.abs(tmp) <= 1) {
+         double phi = Math.atan2(ca - cb, d + sa - sb);
+         p = mod2pi(TWO_PI - Math.acos(tmp));
+         t = mod2pi(-alpha - phi + p / 2);
+         q = mod2pi(beta - alpha - t + p);
+         if (t + p + q < bestLength) {
+            bestLength = t + p + q;
+            bestWord = 5;
+            record(best, t, p, q);
+         }
+      }
+
+      return returnWord ? bestWord : bestLength * radius;
+   }
+
+   private static void record(double[] best, double t, double p, double q) {
+      if (best != null) {
+         best[0] = t;
+         best[1] = p;
+         best[2] = q;
+      }
+   }
+}
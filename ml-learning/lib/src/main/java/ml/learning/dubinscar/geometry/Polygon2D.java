@@ -2,32 +2,250 @@ package ml.learning.dubinscar.geometry;
 
 import java.awt.geom.Line2D;
 import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
+/**
+ * A simple polygon. The vertices are packed into primitive coordinate arrays
+ * and the axis-aligned bounding box is cached, so the raw-coordinate
+ * {@link #contains(double, double)} and
+ * {@link #intersects(double, double, double, double)} queries allocate nothing
+ * and reject most far-away queries with a box test.
+ * <p>
+ * Convexity is detected once, on construction. A convex polygon, which every
+ * triangle is, also caches the outward normal and offset of each edge, and
+ * is then queried with half-plane tests that stop at the first separating
+ * edge. Non-convex polygons use crossing counts and edge-edge tests.
+ * <p>
+ * Circular arcs, the turning pieces of a Dubins path, are tested exactly with
+ * {@link #intersectsArc(double, double, double, double, double)}: a cached
+ * bounding circle rejects polygons wholly outside or inside the arc's circle,
+ * and the rest are solved edge by edge, without sampling the arc.
+ */
 public class Polygon2D {
-   private List<Point2D> vertices;
+   // angular slack at the ends of an arc, for intersections on an end point
+   private static final double ARC_TOLERANCE = 1e-9;
+
+   // built lazily for polygons created from packed coordinates; volatile since
+   // polygons are shared between threads
+   private volatile List<Point2D> vertices;
+
+   private final double[] xs;
+   private final double[] ys;
+
+   private final double minX;
+   private final double minY;
+   private final double maxX;
+   private final double maxY;
+
+   // bounding circle, centred on the bounding box
+   private final double centreX;
+   private final double centreY;
+   private final double boundingRadius;
+
+   // nx, ny and offset per edge if convex, otherwise null
+   private final double[] halfPlanes;
 
    public Polygon2D(List<Point2D> vertices) {
       this.vertices = vertices;
+      int n = vertices.size();
+      this.xs = new double[n];
+      this.ys = new double[n];
+      for (int i = 0; i < n; i++) {
+         Point2D p = vertices.get(i);
+         xs[i] = p.getX();
+         ys[i] = p.getY();
+      }
+      this.minX = min(xs);
+      this.minY = min(ys);
+      this.maxX = max(xs);
+      this.maxY = max(ys);
+      this.centreX = (minX + maxX) / 2;
+      this.centreY = (minY + maxY) / 2;
+      this.boundingRadius = boundingRadius(xs, ys, centreX, centreY);
+      this.halfPlanes = halfPlanes(xs, ys);
+   }
+
+   /**
+    * Creates a polygon directly from packed coordinates. The arrays are owned by
+    * the polygon afterwards and must not be modified.
+    *
+    * @param xs the x-coordinates of the vertices
+    * @param ys the y-coordinates of the vertices
+    */
+   public Polygon2D(double[] xs, double[] ys) {
+      if (xs.length != ys.length) {
+         throw new IllegalArgumentException(
+               "coordinate arrays differ in length: " + xs.length + " vs " + ys.length);
+      }
+      this.xs = xs;
+      this.ys = ys;
+      this.minX = min(xs);
+      this.minY = min(ys);
+      this.maxX = max(xs);
+      this.maxY = max(ys);
+      this.centreX = (minX + maxX) / 2;
+      this.centreY = (minY + maxY) / 2;
+      this.boundingRadius = boundingRadius(xs, ys, centreX, centreY);
+      this.halfPlanes = halfPlanes(xs, ys);
+   }
+
+   /**
+    * Returns the edges of a convex polygon as half-planes, packed as the
+    * outward normal and offset of each edge, so a point p is on the inner side
+    * of edge i if {@code nx * px + ny * py <= offset}. Returns null for a
+    * polygon that is not convex or is degenerate.
+    */
+   private static double[] halfPlanes(double[] xs, double[] ys) {
+      int n = xs.length;
+      if (n < 3) {
+         return null;
+      }
+
+      int orientation = 0;
+      double turning = 0;
+      for (int i = 0; i < n; i++) {
+         int j = (i + 1) % n;
+         int k = (i + 2) % n;
+         double ex = xs[j] - xs[i];
+         double ey = ys[j] - ys[i];
+         double fx = xs[k] - xs[j];
+         double fy = ys[k] - ys[j];
+         double cross = ex * fy - ey * fx;
+         if (cross != 0) {
+            int sign = cross > 0 ? 1 : -1;
+            if (orientation == 0) {
+               orientation = sign;
+            } else if (sign != orientation) {
+               return null;
+            }
+         }
+         turning += Math.atan2(cross, ex * fx + ey * fy);
+      }
+      // a star polygon turns the same way at every vertex but winds around more than once
+      if (orientation == 0 || Math.abs(Math.abs(turning) - 2 * Math.PI) > 1e-6) {
+         return null;
+      }
+
+      double[] planes = new double[3 * n];
+      for (int i = 0; i < n; i++) {
+         int j = (i + 1) % n;
+         double nx = orientation * (ys[j] - ys[i]);
+         double ny = -orientation * (xs[j] - xs[i]);
+         planes[3 * i] = nx;
+         planes[3 * i + 1] = ny;
+         planes[3 * i + 2] = nx * xs[i] + ny * ys[i];
+      }
+      return planes;
+   }
+
+   private static double boundingRadius(double[] xs, double[] ys, double cx, double cy) {
+      double max = 0;
+      for (int i = 0; i < xs.length; i++) {
+         max = Math.max(max, (xs[i] - cx) * (xs[i] - cx) + (ys[i] - cy) * (ys[i] - cy));
+      }
+      return Math.sqrt(max);
+   }
+
+   private static double min(double[] values) {
+      double min = Double.POSITIVE_INFINITY;
+      for (double v : values) {
+         min = Math.min(min, v);
+      }
+      return min;
+   }
+
+   private static double max(double[] values) {
+      double max = Double.NEGATIVE_INFINITY;
+      for (double v : values) {
+         max = Math.max(max, v);
+      }
+      return max;
    }
 
    public List<Point2D> getVertices() {
-      return vertices;
+      List<Point2D> points = vertices;
+      if (points == null) {
+         // racing threads build equal lists, and either may win
+         List<Point2D> built = new ArrayList<>(xs.length);
+         for (int i = 0; i < xs.length; i++) {
+            built.add(new Point2D.Double(xs[i], ys[i]));
+         }
+         points = Collections.unmodifiableList(built);
+         vertices = points;
+      }
+      return points;
+   }
+
+   /**
+    * Returns whether the polygon is convex and so takes the half-plane fast
+    * path in queries.
+    */
+   public boolean isConvex() {
+      return halfPlanes != null;
+   }
+
+   public int getVertexCount() {
+      return xs.length;
+   }
+
+   public double getX(int index) {
+      return xs[index];
+   }
+
+   public double getY(int index) {
+      return ys[index];
+   }
+
+   public double getMinX() {
+      return minX;
+   }
+
+   public double getMinY() {
+      return minY;
+   }
+
+   public double getMaxX() {
+      return maxX;
+   }
+
+   public double getMaxY() {
+      return maxY;
    }
 
    public boolean contains(Point2D point) {
+      return contains(point.getX(), point.getY());
+   }
+
+   public boolean contains(double px, double py) {
+      if (px < minX || px > maxX || py < minY || py > maxY) {
+         return false;
+      }
+
+      if (halfPlanes != null) {
+         for (int i = 0; i < halfPlanes.length; i += 3) {
+            if (halfPlanes[i] * px + halfPlanes[i + 1] * py > halfPlanes[i + 2]) {
+               return false;
+            }
+         }
+         return true;
+      }
+
       int crossings = 0;
+      int n = xs.length;
 
       // Check for crossings by drawing a line from the point to infinity
-      for (int i = 0; i < vertices.size(); i++) {
-         Point2D a = vertices.get(i);
-         Point2D b = vertices.get((i + 1) % vertices.size());
-
-         if (a.getY() != b.getY() && point.getY() >= Math.min(a.getY(), b.getY())
-               && point.getY() < Math.max(a.getY(), b.getY())) {
-            double x = (point.getY() - a.getY()) * (b.getX() - a.getX()) / (b.getY() - a.getY())
-                  + a.getX();
-            if (x < point.getX()) {
+      for (int i = 0; i < n; i++) {
+         int j = i + 1 == n ? 0 : i + 1;
+         double ax = xs[i];
+         double ay = ys[i];
+         double bx = xs[j];
+         double by = ys[j];
+
+         if (ay != by && py >= Math.min(ay, by) && py < Math.max(ay, by)) {
+            double x = (py - ay) * (bx - ax) / (by - ay) + ax;
+            if (x < px) {
                crossings++;
             }
          }
@@ -37,22 +255,145 @@ public class Polygon2D {
    }
 
    public boolean intersects(Point2D start, Point2D end) {
-      if (contains(start) || contains(end)) {
-         return true;
+      return intersects(start.getX(), start.getY(), end.getX(), end.getY());
+   }
+
+   public boolean intersects(double x1, double y1, double x2, double y2) {
+      if (Math.max(x1, x2) < minX || Math.min(x1, x2) > maxX || Math.max(y1, y2) < minY
+            || Math.min(y1, y2) > maxY) {
+         return false;
       }
 
-      Line2D line1 = new Line2D.Double(start.getX(), start.getY(), end.getX(), end.getY());
+      if (halfPlanes != null) {
+         return clipsConvex(x1, y1, x2, y2);
+      }
 
-      for (int i = 0; i < vertices.size(); i++) {
-         Point2D next = vertices.get((i + 1) % vertices.size());
-         Line2D line2 = new Line2D.Double(vertices.get(i).getX(), vertices.get(i).getY(),
-               next.getX(), next.getY());
+      if (contains(x1, y1) || contains(x2, y2)) {
+         return true;
+      }
 
-         if (line1.intersectsLine(line2)) {
+      int n = xs.length;
+      for (int i = 0; i < n; i++) {
+         int j = i + 1 == n ? 0 : i + 1;
+         if (Line2D.linesIntersect(xs[i], ys[i], xs[j], ys[j], x1, y1, x2, y2)) {
             return true;
          }
       }
 
       return false;
    }
+
+   /**
+    * Clips the segment against each edge's half-plane in turn (Cyrus-Beck),
+    * narrowing the parameter range of the segment that can lie inside, and
+    * gives up as soon as the range is empty.
+    */
+   private boolean clipsConvex(double x1, double y1, double x2, double y2) {
+      double dx = x2 - x1;
+      double dy = y2 - y1;
+      double enter = 0;
+      double exit = 1;
+      for (int i = 0; i < halfPlanes.length; i += 3) {
+         double nx = halfPlanes[i];
+         double ny = halfPlanes[i + 1];
+         // positive outside the edge
+         double distance = nx * x1 + ny * y1 - halfPlanes[i + 2];
+         double rate = nx * dx + ny * dy;
+         if (rate == 0) {
+            if (distance > 0) {
+               return false;
+            }
+            continue;
+         }
+         double t = -distance / rate;
+         if (rate < 0) {
+            enter = Math.max(enter, t);
+         } else {
+            exit = Math.min(exit, t);
+         }
+         if (enter > exit) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   /**
+    * Returns true if a circular arc touches the polygon, either by crossing
+    * its boundary or by lying inside it.
+    *
+    * @param cx         the x-coordinate of the arc's centre
+    * @param cy         the y-coordinate of the arc's centre
+    * @param radius     the radius of the arc
+    * @param startAngle the polar angle of the arc's start point about the
+    *                   centre
+    * @param sweep      the angle the arc turns through, positive
+    *                   counter-clockwise; 2 pi or more is a full circle
+    */
+   public boolean intersectsArc(double cx, double cy, double radius, double startAngle,
+         double sweep) {
+      double dx = centreX - cx;
+      double dy = centreY - cy;
+      double distanceSq = dx * dx + dy * dy;
+      double outer = radius + boundingRadius;
+      double inner = radius - boundingRadius;
+      // outside the circle, or inside it without reaching it
+      if (distanceSq > outer * outer || inner > 0 && distanceSq < inner * inner) {
+         return false;
+      }
+
+      // walk every arc counter-clockwise
+      if (sweep < 0) {
+         startAngle += sweep;
+         sweep = -sweep;
+      }
+      double ux = Math.cos(startAngle);
+      double uy = Math.sin(startAngle);
+      if (contains(cx + radius * ux, cy + radius * uy)) {
+         return true;
+      }
+
+      int n = xs.length;
+      double rSq = radius * radius;
+      for (int i = 0; i < n; i++) {
+         int j = i + 1 == n ? 0 : i + 1;
+         double ax = xs[i] - cx;
+         double ay = ys[i] - cy;
+         double ex = xs[j] - xs[i];
+         double ey = ys[j] - ys[i];
+         // |a + t e| = radius
+         double a = ex * ex + ey * ey;
+         double b = ax * ex + ay * ey;
+         double c = ax * ax + ay * ay - rSq;
+         double discriminant = b * b - a * c;
+         if (a == 0 || discriminant < 0) {
+            continue;
+         }
+         double root = Math.sqrt(discriminant);
+         double t = (-b - root) / a;
+         if (t >= 0 && t <= 1 && onArc(ax + t * ex, ay + t * ey, ux, uy, sweep)) {
+            return true;
+         }
+         t = (-b + root) / a;
+         if (t >= 0 && t <= 1 && onArc(ax + t * ex, ay + t * ey, ux, uy, sweep)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   /**
+    * Returns whether a point on the circle, relative to its centre, lies on
+    * the counter-clockwise arc that starts in direction (ux, uy).
+    */
+   private static boolean onArc(double vx, double vy, double ux, double uy, double sweep) {
+      if (sweep >= 2 * Math.PI) {
+         return true;
+      }
+      double angle = Math.atan2(ux * vy - uy * vx, ux * vx + uy * vy);
+      if (angle < 0) {
+         angle += 2 * Math.PI;
+      }
+      return angle <= sweep + ARC_TOLERANCE || angle >= 2 * Math.PI - ARC_TOLERANCE;
+   }
 }
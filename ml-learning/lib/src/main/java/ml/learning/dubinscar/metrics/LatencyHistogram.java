@@ -0,0 +1,139 @@
+package ml.learning.dubinscar.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of durations in nanoseconds with log-linear buckets,
+ * in the style of HdrHistogram: every power of two is split into
+ * {@value #SUB_BUCKETS} equal buckets, so a recorded value is reported to
+ * within about 3% at any magnitude while the whole range fits in a fixed
+ * array. Recording is a few shifts and one atomic increment, so it is safe
+ * to call from any number of threads on the hot path.
+ */
+public class LatencyHistogram {
+
+   private static final int SUB_BUCKET_BITS = 5;
+   private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+   // values below this are counted exactly, one bucket each
+   private static final int LINEAR_LIMIT = 2 * SUB_BUCKETS;
+   private static final int BUCKETS = LINEAR_LIMIT + (63 - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+   private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+   private final LongAdder sum = new LongAdder();
+   private final AtomicLong max = new AtomicLong();
+
+   /**
+    * Records one duration. Negative values are recorded as 0.
+    *
+    * @param nanos the duration in nanoseconds
+    */
+   public void record(long nanos) {
+      long value = Math.max(nanos, 0);
+      counts.incrementAndGet(bucket(value));
+      sum.add(value);
+      if (value > max.get()) {
+         max.accumulateAndGet(value, Math::max);
+      }
+   }
+
+   /**
+    * Records the time elapsed since a {@link System#nanoTime()} reading.
+    *
+    * @param startNanos the reading taken when the timed work started
+    */
+   public void recordSince(long startNanos) {
+      record(System.nanoTime() - startNanos);
+   }
+
+   private static int bucket(long value) {
+      if (value < LINEAR_LIMIT) {
+         return (int) value;
+      }
+      int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+      int subBucket = (int) (value >>> shift) - SUB_BUCKETS;
+      return LINEAR_LIMIT + (shift - 1) * SUB_BUCKETS + subBucket;
+   }
+
+   /**
+    * Returns the largest value that falls in a bucket.
+    */
+   private static long highestValue(int bucket) {
+      if (bucket < LINEAR_LIMIT) {
+         return bucket;
+      }
+      int shift = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 1;
+      long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS + SUB_BUCKETS;
+      return ((subBucket + 1) << shift) - 1;
+   }
+
+   /**
+    * Returns a consistent-enough copy of the histogram's state. Values
+    * recorded while the snapshot is taken may or may not be included.
+    */
+   public Snapshot snapshot() {
+      long[] copy = new long[BUCKETS];
+      long total = 0;
+      for (int b = 0; b < BUCKETS; b++) {
+         copy[b] = counts.get(b);
+         total += copy[b];
+      }
+      return new Snapshot(copy, total, sum.sum(), max.get());
+   }
+
+   /**
+    * A point-in-time copy of a histogram.
+    */
+   public static class Snapshot {
+      private final long[] counts;
+      private final long count;
+      private final long sum;
+      private final long max;
+
+      private Snapshot(long[] counts, long count, long sum, long max) {
+         this.counts = counts;
+         this.count = count;
+         this.sum = sum;
+         this.max = max;
+      }
+
+      public long getCount() {
+         return count;
+      }
+
+      public long getTotalNanos() {
+         return sum;
+      }
+
+      public long getMaxNanos() {
+         return max;
+      }
+
+      public double getMeanNanos() {
+         return count == 0 ? 0 : (double) sum / count;
+      }
+
+      /**
+       * Returns the value below which the given fraction of the recorded values
+       * fall, rounded up to the top of its bucket, or 0 if nothing was
+       * recorded.
+       *
+       * @param quantile the fraction, between 0 and 1
+       */
+      public long getValueAtQuantile(double quantile) {
+         if (count == 0) {
+            return 0;
+         }
+         long rank = Math.max(1, (long) Math.ceil(quantile * count));
+         long seen = 0;
+         for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+               return Math.min(highestValue(b), max);
+            }
+         }
+         return max;
+      }
+   }
+}
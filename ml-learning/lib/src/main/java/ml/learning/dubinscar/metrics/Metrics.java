@@ -0,0 +1,102 @@
+package ml.learning.dubinscar.metrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The process-wide registry of named counters and latency histograms. Look a
+ * metric up once, typically into a static final field, and update it on the
+ * hot path:
+ *
+ * <pre>
+ * private static final LatencyHistogram PLAN = Metrics.histogram("planner.planPath");
+ * ...
+ * long start = System.nanoTime();
+ * ...
+ * PLAN.recordSince(start);
+ * </pre>
+ */
+public final class Metrics {
+
+   private static final long START_NANOS = System.nanoTime();
+
+   private static final Map<String, LongAdder> counters = new ConcurrentSkipListMap<>();
+   private static final Map<String, LatencyHistogram> histograms = new ConcurrentSkipListMap<>();
+
+   private Metrics() {
+   }
+
+   /**
+    * Returns the counter with the given name, creating it on first use.
+    */
+   public static LongAdder counter(String name) {
+      return counters.computeIfAbsent(name, n -> new LongAdder());
+   }
+
+   /**
+    * Returns the histogram with the given name, creating it on first use.
+    */
+   public static LatencyHistogram histogram(String name) {
+      return histograms.computeIfAbsent(name, n -> new LatencyHistogram());
+   }
+
+   /**
+    * Writes every counter and a summary of every histogram, in milliseconds,
+    * to a JSON file. The file is replaced atomically, so a reader never sees a
+    * partial snapshot. Must not be called concurrently for the same file.
+    *
+    * @param file the file to write
+    * @throws IOException if the file cannot be written
+    */
+   public static void writeJson(File file) throws IOException {
+      Path target = file.toPath();
+      Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+      try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+         writeJson(out);
+      }
+      Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+   }
+
+   private static void writeJson(Writer out) throws IOException {
+      out.write(String.format(Locale.ROOT, "{\n  \"timestamp\": %d,\n  \"uptimeMs\": %.1f,\n",
+            System.currentTimeMillis(), millis(System.nanoTime() - START_NANOS)));
+
+      out.write("  \"counters\": {");
+      String separator = "\n";
+      for (Map.Entry<String, LongAdder> counter : counters.entrySet()) {
+         out.write(String.format(Locale.ROOT, "%s    \"%s\": %d", separator, counter.getKey(),
+               counter.getValue().sum()));
+         separator = ",\n";
+      }
+      out.write("\n  },\n");
+
+      out.write("  \"histograms\": {");
+      separator = "\n";
+      for (Map.Entry<String, LatencyHistogram> histogram : histograms.entrySet()) {
+         LatencyHistogram.Snapshot s = histogram.getValue().snapshot();
+         out.write(String.format(Locale.ROOT,
+               "%s    \"%s\": {\"count\": %d, \"totalMs\": %.3f, \"meanMs\": %.4f, "
+                     + "\"p50Ms\": %.4f, \"p90Ms\": %.4f, \"p99Ms\": %.4f, \"p999Ms\": %.4f, "
+                     + "\"maxMs\": %.4f}",
+               separator, histogram.getKey(), s.getCount(), millis(s.getTotalNanos()),
+               s.getMeanNanos() / 1e6, millis(s.getValueAtQuantile(0.5)),
+               millis(s.getValueAtQuantile(0.9)), millis(s.getValueAtQuantile(0.99)),
+               millis(s.getValueAtQuantile(0.999)), millis(s.getMaxNanos())));
+         separator = ",\n";
+      }
+      out.write("\n  }\n}\n");
+   }
+
+   private static double millis(long nanos) {
+      return nanos / 1e6;
+   }
+}
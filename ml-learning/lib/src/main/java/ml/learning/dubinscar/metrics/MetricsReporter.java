@@ -0,0 +1,57 @@
+package ml.learning.dubinscar.metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically dumps the {@link Metrics} to a JSON file from a background
+ * thread, and once more when closed.
+ */
+public class MetricsReporter implements Closeable {
+
+   private final File file;
+   private final ScheduledExecutorService scheduler;
+
+   /**
+    * Starts dumping the metrics.
+    *
+    * @param file         the JSON file to replace with each snapshot
+    * @param periodMillis the time between snapshots
+    */
+   public MetricsReporter(File file, long periodMillis) {
+      this.file = file;
+      this.scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread thread = new Thread(r, "metrics-reporter");
+         thread.setDaemon(true);
+         return thread;
+      });
+      scheduler.scheduleAtFixedRate(this::dump, periodMillis, periodMillis,
+            TimeUnit.MILLISECONDS);
+   }
+
+   private void dump() {
+      try {
+         Metrics.writeJson(file);
+      } catch (IOException e) {
+         e.printStackTrace();
+      }
+   }
+
+   /**
+    * Stops the periodic dumps and writes a final snapshot.
+    */
+   @Override
+   public void close() {
+      scheduler.shutdown();
+      try {
+         scheduler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      dump();
+   }
+}
@@ -0,0 +1,223 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * An A* search over a {@link SearchGraph}. Scores, parents and the open set
+ * live in primitive arrays indexed by node id, and the open set is an indexed
+ * binary heap with a real decrease-key. The arrays are kept between searches
+ * and are invalidated by bumping a generation counter rather than by clearing
+ * them, so once they have grown to the size of the graph a search allocates
+ * nothing. Instances are not thread-safe; use one per thread.
+ */
+public class AStarSearch {
+
+   private static final int NOT_FOUND = -1;
+
+   // heapIndex value of a node that has been expanded
+   private static final int CLOSED = -1;
+
+   private double[] gScore = new double[0];
+   private double[] fScore = new double[0];
+   private int[] parent = new int[0];
+   private int[] heapIndex = new int[0];
+   private int[] generation = new int[0];
+   private int[] heap = new int[0];
+   private int heapSize;
+   private int currentGeneration;
+
+   private SearchGraph graph;
+   private int current;
+   private int goal;
+   private int expanded;
+
+   private final IntConsumer relax = this::relax;
+
+   private void ensureCapacity(int size) {
+      if (gScore.length < size) {
+         gScore = new double[size];
+         fScore = new double[size];
+         parent = new int[size];
+         heapIndex = new int[size];
+         generation = new int[size];
+         heap = new int[size];
+         currentGeneration = 0;
+      }
+   }
+
+   private void startGeneration() {
+      if (++currentGeneration == Integer.MAX_VALUE) {
+         Arrays.fill(generation, 0);
+         currentGeneration = 1;
+      }
+   }
+
+   private boolean seen(int node) {
+      return generation[node] == currentGeneration;
+   }
+
+   /**
+    * Searches for the cheapest path from start to goal.
+    *
+    * @param graph the graph to search
+    * @param start the start node id
+    * @param goal  the goal node id
+    * @return true if the goal was reached; the path can then be read back with
+    *         {@link #getParent(int)} or {@link #getPath(int, int[])}
+    */
+   public boolean search(SearchGraph graph, int start, int goal) {
+      ensureCapacity(graph.size());
+      startGeneration();
+      this.graph = graph;
+      this.goal = goal;
+      this.expanded = 0;
+      this.heapSize = 0;
+
+      generation[start] = currentGeneration;
+      gScore[start] = 0;
+      fScore[start] = 0;
+      parent[start] = NOT_FOUND;
+      push(start);
+
+      try {
+         while (heapSize > 0) {
+            current = pop();
+            heapIndex[current] = CLOSED;
+
+            if (current == goal) {
+               return true;
+            }
+
+            expanded++;
+            graph.forEachNeighbor(current, relax);
+         }
+         return false;
+      } finally {
+         this.graph = null;
+      }
+   }
+
+   private void relax(int neighbor) {
+      boolean known = seen(neighbor);
+      if (known && heapIndex[neighbor] == CLOSED) {
+         return;
+      }
+
+      double tentativeGScore = gScore[current] + graph.cost(current, neighbor);
+
+      if (!known || tentativeGScore < gScore[neighbor]) {
+         parent[neighbor] = current;
+         gScore[neighbor] = tentativeGScore;
+         fScore[neighbor] = tentativeGScore + graph.heuristic(neighbor, goal);
+
+         if (known) {
+            siftUp(heapIndex[neighbor]);
+         } else {
+            generation[neighbor] = currentGeneration;
+            push(neighbor);
+         }
+      }
+   }
+
+   /**
+    * Returns the node the cheapest known path to the given node came from, or -1
+    * for the start node and nodes the last search did not reach.
+    */
+   public int getParent(int node) {
+      return seen(node) ? parent[node] : NOT_FOUND;
+   }
+
+   /**
+    * Returns the cost of the cheapest known path to the given node in the last
+    * search, or {@link Double#POSITIVE_INFINITY} if it was not reached.
+    */
+   public double getCost(int node) {
+      return seen(node) ? gScore[node] : Double.POSITIVE_INFINITY;
+   }
+
+   /**
+    * Returns the number of nodes expanded by the last search.
+    */
+   public int getExpandedCount() {
+      return expanded;
+   }
+
+   /**
+    * Writes the path found by the last search, from start to the given node,
+    * into the buffer.
+    *
+    * @param node   the last node of the path, usually the goal
+    * @param buffer where to write the node ids
+    * @return the number of nodes written, or -1 if the buffer is too small
+    */
+   public int getPath(int node, int[] buffer) {
+      int length = 0;
+      for (int n = node; n != NOT_FOUND; n = getParent(n)) {
+         length++;
+      }
+      if (length > buffer.length) {
+         return -1;
+      }
+      int i = length;
+      for (int n = node; n != NOT_FOUND; n = getParent(n)) {
+         buffer[--i] = n;
+      }
+      return length;
+   }
+
+   private void push(int node) {
+      heap[heapSize] = node;
+      heapIndex[node] = heapSize;
+      siftUp(heapSize++);
+   }
+
+   private int pop() {
+      int top = heap[0];
+      int last = heap[--heapSize];
+      if (heapSize > 0) {
+         heap[0] = last;
+         heapIndex[last] = 0;
+         siftDown(0);
+      }
+      return top;
+   }
+
+   private void siftUp(int index) {
+      int node = heap[index];
+      double f = fScore[node];
+      while (index > 0) {
+         int parentIndex = (index - 1) >>> 1;
+         int parentNode = heap[parentIndex];
+         if (fScore[parentNode] <= f) {
+            break;
+         }
+         heap[index] = parentNode;
+         heapIndex[parentNode] = index;
+         index = parentIndex;
+      }
+      heap[index] = node;
+      heapIndex[node] = index;
+   }
+
+   private void siftDown(int index) {
+      int node = heap[index];
+      double f = fScore[node];
+      int half = heapSize >>> 1;
+      while (index < half) {
+         int child = 2 * index + 1;
+         int right = child + 1;
+         if (right < heapSize && fScore[heap[right]] < fScore[heap[child]]) {
+            child = right;
+         }
+         if (f <= fScore[heap[child]]) {
+            break;
+         }
+         heap[index] = heap[child];
+         heapIndex[heap[index]] = index;
+         index = child;
+      }
+      heap[index] = node;
+      heapIndex[node] = index;
+   }
+}
@@ -0,0 +1,117 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.util.Arrays;
+
+/**
+ * A memo of edge costs keyed by an unordered pair of integer node ids. Edge
+ * costs are assumed to be symmetric, so (a, b) and (b, a) share an entry. The
+ * table is open-addressed over primitive arrays and keeps its capacity across
+ * {@link #clear()}, so a planner can reuse one cache for many environments
+ * without reallocating. Instances are not thread-safe.
+ */
+public class EdgeCostCache {
+
+   private static final long EMPTY = -1L;
+
+   private long[] keys;
+   private double[] values;
+   private int size;
+   private int mask;
+
+   public EdgeCostCache() {
+      this(1 << 12);
+   }
+
+   /**
+    * Creates a cache sized to hold roughly the given number of edges before
+    * growing.
+    *
+    * @param expectedEdges the expected number of cached edges
+    */
+   public EdgeCostCache(int expectedEdges) {
+      int capacity = Integer.highestOneBit(Math.max(expectedEdges, 8) * 2 - 1) << 1;
+      keys = new long[capacity];
+      values = new double[capacity];
+      mask = capacity - 1;
+      Arrays.fill(keys, EMPTY);
+   }
+
+   private static long key(int a, int b) {
+      return a < b ? ((long) a << 32) | (b & 0xFFFFFFFFL) : ((long) b << 32) | (a & 0xFFFFFFFFL);
+   }
+
+   private static int hash(long key) {
+      long h = key * 0x9E3779B97F4A7C15L;
+      return (int) (h ^ (h >>> 32));
+   }
+
+   /**
+    * Returns the cached cost of the edge between nodes a and b.
+    *
+    * @return the cached cost, or {@link Double#NaN} if the edge has not been
+    *         stored
+    */
+   public double get(int a, int b) {
+      long key = key(a, b);
+      for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+         long k = keys[slot];
+         if (k == key) {
+            return values[slot];
+         }
+         if (k == EMPTY) {
+            return Double.NaN;
+         }
+      }
+   }
+
+   public void put(int a, int b, double cost) {
+      if (2 * (size + 1) > keys.length) {
+         grow();
+      }
+      long key = key(a, b);
+      for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+         long k = keys[slot];
+         if (k == key) {
+            values[slot] = cost;
+            return;
+         }
+         if (k == EMPTY) {
+            keys[slot] = key;
+            values[slot] = cost;
+            size++;
+            return;
+         }
+      }
+   }
+
+   private void grow() {
+      long[] oldKeys = keys;
+      double[] oldValues = values;
+      keys = new long[oldKeys.length * 2];
+      values = new double[oldKeys.length * 2];
+      mask = keys.length - 1;
+      Arrays.fill(keys, EMPTY);
+      for (int i = 0; i < oldKeys.length; i++) {
+         long key = oldKeys[i];
+         if (key != EMPTY) {
+            int slot = hash(key) & mask;
+            while (keys[slot] != EMPTY) {
+               slot = (slot + 1) & mask;
+            }
+            keys[slot] = key;
+            values[slot] = oldValues[i];
+         }
+      }
+   }
+
+   public int size() {
+      return size;
+   }
+
+   public void clear() {
+      if (size > 0) {
+         Arrays.fill(keys, EMPTY);
+         size = 0;
+      }
+   }
+}
@@ -0,0 +1,282 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.awt.geom.Point2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+import ml.learning.dubinscar.environment.Obstacle;
+import ml.learning.dubinscar.environment.ObstacleIndex;
+import ml.learning.dubinscar.environment.SpeedReductionRegion;
+import ml.learning.dubinscar.geometry.DubinsCar;
+import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.geometry.DubinsPathSolver;
+import ml.learning.dubinscar.geometry.Waypoint;
+
+/**
+ * Plans over an (x, y, heading) state lattice with precomputed Dubins motion
+ * primitives, so every returned leg respects the car's minimum turning radius.
+ * States are expanded with the primitive table for the car's radius and speed
+ * and checked against the obstacles through their footprints. The exact start
+ * pose is connected to the lattice, and states near the goal to the exact goal
+ * pose, by shortest Dubins shots. The heuristic is the obstacle-free Dubins
+ * distance to the goal. If no path is found the direct path is returned.
+ * Instances reuse their search buffers and are not thread-safe.
+ */
+public class HybridAStarPathPlanner implements PathPlanner {
+
+   public static final double DEFAULT_CELL_SIZE = 2;
+   public static final int DEFAULT_HEADING_BINS = 16;
+   public static final double DEFAULT_STEP_TIME = 0.5;
+
+   private final double cellSize;
+   private final int headingBins;
+   private final double stepTime;
+
+   private final AStarSearch search = new AStarSearch();
+   private final double[] pieces = new double[3];
+   private final double[] pose = new double[3];
+
+   public HybridAStarPathPlanner() {
+      this(DEFAULT_CELL_SIZE, DEFAULT_HEADING_BINS, DEFAULT_STEP_TIME);
+   }
+
+   /**
+    * Creates a planner.
+    *
+    * @param cellSize    the lattice cell size
+    * @param headingBins the number of heading bins
+    * @param stepTime    how long, at the car's speed, each primitive drives
+    */
+   public HybridAStarPathPlanner(double cellSize, int headingBins, double stepTime) {
+      this.cellSize = cellSize;
+      this.headingBins = headingBins;
+      this.stepTime = stepTime;
+   }
+
+   @Override
+   public DubinsPath planPath(DubinsCar car, Waypoint start, Waypoint end, List<Obstacle> obstacles,
+         List<SpeedReductionRegion> speedRegions, Point2D swPoint, Point2D nePoint) {
+      return planPath(car, start, end, new ObstacleIndex(obstacles, swPoint, nePoint), swPoint,
+            nePoint);
+   }
+
+   /**
+    * Plans a path using an existing obstacle index.
+    */
+   public DubinsPath planPath(DubinsCar car, Waypoint start, Waypoint end, ObstacleIndex obstacles,
+         Point2D swPoint, Point2D nePoint) {
+      PlanPathEvent event = new PlanPathEvent();
+      event.begin();
+      MotionPrimitives primitives = MotionPrimitives.forCar(car, cellSize, headingBins, stepTime);
+      StateGraph graph = new StateGraph(primitives, car.getRadius(), start, end, obstacles,
+            swPoint, nePoint);
+
+      List<Waypoint> waypoints = new ArrayList<>();
+      if (search.search(graph, graph.startId, graph.goalId)) {
+         for (int n = graph.goalId; n >= 0; n = search.getParent(n)) {
+            waypoints.add(graph.waypoint(n));
+         }
+         Collections.reverse(waypoints);
+      } else {
+         waypoints.addAll(Arrays.asList(start, end));
+      }
+
+      if (event.shouldCommit()) {
+         event.planner = "hybrid A*";
+         event.requests = 1;
+         event.obstacles = obstacles.getObstacles().size();
+         event.waypoints = waypoints.size();
+         event.nodesExpanded = search.getExpandedCount();
+         event.commit();
+      }
+      return new DubinsPath(waypoints);
+   }
+
+   /**
+    * The lattice of one query. State (i, j, h) has id {@code (i * rows + j) *
+    * headingBins + h}; the exact start and goal take the two ids after the
+    * lattice.
+    */
+   private class StateGraph implements SearchGraph {
+      private final MotionPrimitives primitives;
+      private final double radius;
+      private final Waypoint start;
+      private final Waypoint goal;
+      private final ObstacleIndex obstacles;
+      private final double swX;
+      private final double swY;
+      private final int columns;
+      private final int rows;
+      private final int startId;
+      private final int goalId;
+      private final double goalShotRange;
+
+      StateGraph(MotionPrimitives primitives, double radius, Waypoint start, Waypoint goal,
+            ObstacleIndex obstacles, Point2D swPoint, Point2D nePoint) {
+         this.primitives = primitives;
+         this.radius = radius;
+         this.start = start;
+         this.goal = goal;
+         this.obstacles = obstacles;
+         this.swX = swPoint.getX();
+         this.swY = swPoint.getY();
+         this.columns = Math.max(1, (int) Math.ceil((nePoint.getX() - swX) / cellSize));
+         this.rows = Math.max(1, (int) Math.ceil((nePoint.getY() - swY) / cellSize));
+         this.startId = columns * rows * headingBins;
+         this.goalId = startId + 1;
+         this.goalShotRange = 4 * radius + 2 * cellSize;
+      }
+
+      private int id(int i, int j, int h) {
+         return (i * rows + j) * headingBins + h;
+      }
+
+      private int column(int id) {
+         return id / headingBins / rows;
+      }
+
+      private int row(int id) {
+         return id / headingBins % rows;
+      }
+
+      private int heading(int id) {
+         return id % headingBins;
+      }
+
+      private double x(int id) {
+         return id == startId ? start.getX()
+               : id == goalId ? goal.getX() : swX + (column(id) + 0.5) * cellSize;
+      }
+
+      private double y(int id) {
+         return id == startId ? start.getY()
+               : id == goalId ? goal.getY() : swY + (row(id) + 0.5) * cellSize;
+      }
+
+      private double theta(int id) {
+         return id == startId ? start.getOrientation()
+               : id == goalId ? goal.getOrientation() : primitives.getHeading(heading(id));
+      }
+
+      Waypoint waypoint(int id) {
+         return id == startId ? start
+               : id == goalId ? goal : new Waypoint(x(id), y(id), theta(id));
+      }
+
+      @Override
+      public int size() {
+         return goalId + 1;
+      }
+
+      @Override
+      public void forEachNeighbor(int node, IntConsumer visitor) {
+         if (node == goalId) {
+            return;
+         }
+
+         double x = x(node);
+         double y = y(node);
+         int i;
+         int j;
+         int h;
+         if (node == startId) {
+            i = clamp((int) Math.floor((x - swX) / cellSize), columns);
+            j = clamp((int) Math.floor((y - swY) / cellSize), rows);
+            h = primitives.headingBin(start.getOrientation());
+         } else {
+            i = column(node);
+            j = row(node);
+            h = heading(node);
+         }
+
+         for (int p = primitives.firstPrimitive(h); p < primitives.endPrimitive(h); p++) {
+            int ti = i + primitives.getOffsetI(p);
+            int tj = j + primitives.getOffsetJ(p);
+            if (ti < 0 || ti >= columns || tj < 0 || tj >= rows) {
+               continue;
+            }
+            int target = id(ti, tj, primitives.getEndHeading(p));
+            boolean clear = node == startId ? shotIsClear(node, target) : footprintIsClear(x, y, p);
+            if (clear) {
+               visitor.accept(target);
+            }
+         }
+
+         double dx = goal.getX() - x;
+         double dy = goal.getY() - y;
+         if (dx * dx + dy * dy <= goalShotRange * goalShotRange && shotIsClear(node, goalId)) {
+            visitor.accept(goalId);
+         }
+      }
+
+      private int clamp(int index, int size) {
+         return index < 0 ? 0 : index >= size ? size - 1 : index;
+      }
+
+      private boolean footprintIsClear(double x, double y, int primitive) {
+         int first = primitives.footprintStart(primitive);
+         int last = primitives.footprintEnd(primitive) - 1;
+         for (int k = first; k < last; k++) {
+            if (obstacles.intersects(x + primitives.getFootprintX(k),
+                  y + primitives.getFootprintY(k), x + primitives.getFootprintX(k + 1),
+                  y + primitives.getFootprintY(k + 1))) {
+               return false;
+            }
+         }
+         return true;
+      }
+
+      /**
+       * Checks the shortest Dubins path between two states, traced at half-cell
+       * steps, against the obstacles.
+       */
+      private boolean shotIsClear(int from, int to) {
+         double x = x(from);
+         double y = y(from);
+         double theta = theta(from);
+         DubinsPathSolver.Word word = DubinsPathSolver.solve(x, y, theta, x(to), y(to), theta(to),
+               radius, pieces);
+         double total = pieces[0] + pieces[1] + pieces[2];
+         int samples = Math.max(1, (int) Math.ceil(total / (cellSize / 2)));
+         double prevX = x;
+         double prevY = y;
+         for (int s = 1; s <= samples; s++) {
+            DubinsPathSolver.sample(x, y, theta, word, pieces, radius, total * s / samples, pose);
+            if (obstacles.intersects(prevX, prevY, pose[0], pose[1])) {
+               return false;
+            }
+            prevX = pose[0];
+            prevY = pose[1];
+         }
+         return true;
+      }
+
+      @Override
+      public double cost(int from, int to) {
+         if (from == startId || to == goalId) {
+            return DubinsPathSolver.shortestLength(x(from), y(from), theta(from), x(to), y(to),
+                  theta(to), radius);
+         }
+         int h = heading(from);
+         int di = column(to) - column(from);
+         int dj = row(to) - row(from);
+         int end = heading(to);
+         for (int p = primitives.firstPrimitive(h); p < primitives.endPrimitive(h); p++) {
+            if (primitives.getOffsetI(p) == di && primitives.getOffsetJ(p) == dj
+                  && primitives.getEndHeading(p) == end) {
+               return primitives.getLength(p);
+            }
+         }
+         return Double.POSITIVE_INFINITY;
+      }
+
+      @Override
+      public double heuristic(int node, int goal) {
+         return DubinsPathSolver.shortestLength(x(node), y(node), theta(node), x(goal), y(goal),
+               theta(goal), radius);
+      }
+   }
+}
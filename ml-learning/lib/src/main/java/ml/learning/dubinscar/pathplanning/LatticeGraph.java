@@ -0,0 +1,170 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.awt.geom.Point2D;
+import java.util.function.IntConsumer;
+
+import ml.learning.dubinscar.geometry.Waypoint;
+
+/**
+ * A square lattice of waypoints over the op-area whose edges are computed from
+ * the grid indices on demand, so no neighbor lists are stored. Lattice node
+ * (i, j) has id {@code i * resolution + j} and is connected to every node
+ * whose indices differ by {@code [-neighborDist, neighborDist)} in each
+ * direction. The lattice is immutable and may be shared between threads and
+ * matches; the start and goal of a search are attached per query by
+ * {@link Query}.
+ */
+public class LatticeGraph {
+
+   private final double swX;
+   private final double swY;
+   private final double neX;
+   private final double neY;
+   private final int resolution;
+   private final int neighborDist;
+   private final double connectRadius;
+
+   /**
+    * Creates a lattice over the op-area.
+    *
+    * @param swPoint      the south-west corner of the op-area
+    * @param nePoint      the north-east corner of the op-area
+    * @param resolution   the number of lattice nodes along each side
+    * @param neighborDist how many nodes away, along each axis, an edge reaches
+    */
+   public LatticeGraph(Point2D swPoint, Point2D nePoint, int resolution, int neighborDist) {
+      if (resolution < 1 || neighborDist < 1) {
+         throw new IllegalArgumentException(
+               "resolution and neighborDist must be positive: " + resolution + ", " + neighborDist);
+      }
+      this.swX = swPoint.getX();
+      this.swY = swPoint.getY();
+      this.neX = nePoint.getX();
+      this.neY = nePoint.getY();
+      this.resolution = resolution;
+      this.neighborDist = neighborDist;
+      this.connectRadius = swPoint.distance(nePoint) / resolution * neighborDist;
+   }
+
+   /**
+    * Returns true if this lattice was built for the given op-area and
+    * parameters, and so can be reused for it.
+    */
+   public boolean matches(Point2D swPoint, Point2D nePoint, int resolution, int neighborDist) {
+      return swX == swPoint.getX() && swY == swPoint.getY() && neX == nePoint.getX()
+            && neY == nePoint.getY() && this.resolution == resolution
+            && this.neighborDist == neighborDist;
+   }
+
+   public int getResolution() {
+      return resolution;
+   }
+
+   /**
+    * Returns the number of lattice nodes, not counting a query's start and goal.
+    */
+   public int getNodeCount() {
+      return resolution * resolution;
+   }
+
+   public double getX(int id) {
+      return swX + (double) (id / resolution) / resolution * (neX - swX);
+   }
+
+   public double getY(int id) {
+      return swY + (double) (id % resolution) / resolution * (neY - swY);
+   }
+
+   /**
+    * A search over the lattice from a start to a goal waypoint. The start gets
+    * id {@link LatticeGraph#getNodeCount()} and the goal the id after it; the
+    * start connects to the lattice nodes within the connection radius, and those
+    * lattice nodes near the goal connect to it. Subclasses supply the edge cost
+    * and heuristic.
+    */
+   public abstract static class Query implements SearchGraph {
+      protected final LatticeGraph lattice;
+      protected final Waypoint start;
+      protected final Waypoint goal;
+
+      private final int startId;
+      private final int goalId;
+
+      protected Query(LatticeGraph lattice, Waypoint start, Waypoint goal) {
+         this.lattice = lattice;
+         this.start = start;
+         this.goal = goal;
+         this.startId = lattice.getNodeCount();
+         this.goalId = startId + 1;
+      }
+
+      public int getStartId() {
+         return startId;
+      }
+
+      public int getGoalId() {
+         return goalId;
+      }
+
+      public double getX(int id) {
+         return id == startId ? start.getX() : id == goalId ? goal.getX() : lattice.getX(id);
+      }
+
+      public double getY(int id) {
+         return id == startId ? start.getY() : id == goalId ? goal.getY() : lattice.getY(id);
+      }
+
+      /**
+       * Returns the waypoint for a node id, creating one for lattice nodes.
+       */
+      public Waypoint getWaypoint(int id) {
+         return id == startId ? start : id == goalId ? goal : new Waypoint(getX(id), getY(id), 0);
+      }
+
+      @Override
+      public int size() {
+         return goalId + 1;
+      }
+
+      @Override
+      public void forEachNeighbor(int node, IntConsumer visitor) {
+         if (node == goalId) {
+            return;
+         }
+         int n = lattice.resolution;
+         if (node == startId) {
+            for (int id = 0; id < startId; id++) {
+               if (near(id, start)) {
+                  visitor.accept(id);
+               }
+            }
+            return;
+         }
+
+         if (near(node, goal)) {
+            visitor.accept(goalId);
+         }
+
+         int i = node / n;
+         int j = node % n;
+         int d = lattice.neighborDist;
+         int kFrom = Math.max(-d, -i);
+         int kTo = Math.min(d, n - i);
+         int lFrom = Math.max(-d, -j);
+         int lTo = Math.min(d, n - j);
+         for (int k = kFrom; k < kTo; k++) {
+            for (int l = lFrom; l < lTo; l++) {
+               if (k != 0 || l != 0) {
+                  visitor.accept((i + k) * n + j + l);
+               }
+            }
+         }
+      }
+
+      private boolean near(int id, Waypoint wp) {
+         double dx = lattice.getX(id) - wp.getX();
+         double dy = lattice.getY(id) - wp.getY();
+         return Math.sqrt(dx * dx + dy * dy) < lattice.connectRadius;
+      }
+   }
+}
@@ -0,0 +1,215 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ml.learning.dubinscar.geometry.DubinsCar;
+import ml.learning.dubinscar.geometry.DubinsPathSolver;
+
+/**
+ * A table of motion primitives for an (x, y, heading) state lattice. For every
+ * heading bin it stores the primitives a car can drive from a lattice state:
+ * the cell and heading offsets of the state each one ends in, its length, and
+ * a footprint polyline, relative to the start cell center, that traces the
+ * driven curve for collision checks. Each primitive is the shortest Dubins path
+ * between the two lattice states, so it always respects the turning radius.
+ * Tables are immutable and are shared through {@link #forCar}.
+ */
+public class MotionPrimitives {
+
+   private static final Map<String, MotionPrimitives> cache = new ConcurrentHashMap<>();
+
+   // heading changes, in bins, that the primitives of each state end with
+   private static final int[] TURNS = { 0, 1, -1, 2, -2 };
+
+   private final double cellSize;
+   private final int headingBins;
+   private final double binWidth;
+
+   // primitives of heading bin h are [primitiveStart[h], primitiveStart[h + 1])
+   private final int[] primitiveStart;
+   private final int[] offsetI;
+   private final int[] offsetJ;
+   private final int[] endHeading;
+   private final double[] length;
+
+   // footprint of primitive p is points [footprintStart[p], footprintStart[p + 1])
+   private final int[] footprintStart;
+   private final double[] footprintX;
+   private final double[] footprintY;
+
+   /**
+    * Returns the shared primitive table for a car's turning radius and speed.
+    *
+    * @param car         the car whose radius and speed shape the primitives
+    * @param cellSize    the lattice cell size
+    * @param headingBins the number of heading bins
+    * @param stepTime    how long, at the car's speed, each primitive drives
+    * @return the primitive table
+    */
+   public static MotionPrimitives forCar(DubinsCar car, double cellSize, int headingBins,
+         double stepTime) {
+      double stepLength = Math.max(car.getSpeed() * stepTime, 4 * cellSize);
+      String key = car.getRadius() + "/" + stepLength + "/" + cellSize + "/" + headingBins;
+      return cache.computeIfAbsent(key,
+            k -> new MotionPrimitives(car.getRadius(), stepLength, cellSize, headingBins));
+   }
+
+   public MotionPrimitives(double radius, double stepLength, double cellSize, int headingBins) {
+      this.cellSize = cellSize;
+      this.headingBins = headingBins;
+      this.binWidth = 2 * Math.PI / headingBins;
+
+      int maxPrimitives = headingBins * TURNS.length;
+      int[] start = new int[headingBins + 1];
+      int[] di = new int[maxPrimitives];
+      int[] dj = new int[maxPrimitives];
+      int[] dh = new int[maxPrimitives];
+      double[] len = new double[maxPrimitives];
+      int[] fpStart = new int[maxPrimitives + 1];
+      double[] fpX = new double[64];
+      double[] fpY = new double[64];
+
+      double[] pieces = new double[3];
+      double[] pose = new double[3];
+      double sampleStep = cellSize / 2;
+      int count = 0;
+      int points = 0;
+
+      for (int h = 0; h < headingBins; h++) {
+         start[h] = count;
+         double theta = h * binWidth;
+         for (int turn : TURNS) {
+            // a constant-curvature arc that turns by the wanted number of bins, no
+            // tighter than the turning radius allows
+            double dTheta = turn * binWidth;
+            double arcLength = Math.max(stepLength, radius * Math.abs(dTheta));
+            double endTheta = theta + dTheta;
+            double x;
+            double y;
+            if (turn == 0) {
+               x = arcLength * Math.cos(theta);
+               y = arcLength * Math.sin(theta);
+            } else {
+               double kappa = dTheta / arcLength;
+               x = (Math.sin(endTheta) - Math.sin(theta)) / kappa;
+               y = (Math.cos(theta) - Math.cos(endTheta)) / kappa;
+            }
+            int i = (int) Math.round(x / cellSize);
+            int j = (int) Math.round(y / cellSize);
+            int end = Math.floorMod(h + turn, headingBins);
+            if ((i == 0 && j == 0) || isDuplicate(di, dj, dh, start[h], count, i, j, end)) {
+               continue;
+            }
+
+            DubinsPathSolver.Word word = DubinsPathSolver.solve(0, 0, theta, i * cellSize,
+                  j * cellSize, end * binWidth, radius, pieces);
+            double total = pieces[0] + pieces[1] + pieces[2];
+            // snapping can force a loop; such primitives are never worth taking
+            if (total > 1.5 * arcLength) {
+               continue;
+            }
+
+            di[count] = i;
+            dj[count] = j;
+            dh[count] = end;
+            len[count] = total;
+            fpStart[count] = points;
+            int samples = Math.max(1, (int) Math.ceil(total / sampleStep));
+            for (int s = 0; s <= samples; s++) {
+               DubinsPathSolver.sample(0, 0, theta, word, pieces, radius, total * s / samples,
+                     pose);
+               if (points == fpX.length) {
+                  fpX = Arrays.copyOf(fpX, points * 2);
+                  fpY = Arrays.copyOf(fpY, points * 2);
+               }
+               fpX[points] = pose[0];
+               fpY[points] = pose[1];
+               points++;
+            }
+            count++;
+         }
+      }
+      start[headingBins] = count;
+      fpStart[count] = points;
+
+      this.primitiveStart = start;
+      this.offsetI = Arrays.copyOf(di, count);
+      this.offsetJ = Arrays.copyOf(dj, count);
+      this.endHeading = Arrays.copyOf(dh, count);
+      this.length = Arrays.copyOf(len, count);
+      this.footprintStart = Arrays.copyOf(fpStart, count + 1);
+      this.footprintX = Arrays.copyOf(fpX, points);
+      this.footprintY = Arrays.copyOf(fpY, points);
+   }
+
+   private static boolean isDuplicate(int[] di, int[] dj, int[] dh, int from, int to, int i, int j,
+         int h) {
+      for (int p = from; p < to; p++) {
+         if (di[p] == i && dj[p] == j && dh[p] == h) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   public double getCellSize() {
+      return cellSize;
+   }
+
+   public int getHeadingBins() {
+      return headingBins;
+   }
+
+   public double getHeading(int bin) {
+      return bin * binWidth;
+   }
+
+   /**
+    * Returns the heading bin closest to the given heading.
+    */
+   public int headingBin(double theta) {
+      return Math.floorMod((int) Math.round(theta / binWidth), headingBins);
+   }
+
+   public int firstPrimitive(int headingBin) {
+      return primitiveStart[headingBin];
+   }
+
+   public int endPrimitive(int headingBin) {
+      return primitiveStart[headingBin + 1];
+   }
+
+   public int getOffsetI(int primitive) {
+      return offsetI[primitive];
+   }
+
+   public int getOffsetJ(int primitive) {
+      return offsetJ[primitive];
+   }
+
+   public int getEndHeading(int primitive) {
+      return endHeading[primitive];
+   }
+
+   public double getLength(int primitive) {
+      return length[primitive];
+   }
+
+   public int footprintStart(int primitive) {
+      return footprintStart[primitive];
+   }
+
+   public int footprintEnd(int primitive) {
+      return footprintStart[primitive + 1];
+   }
+
+   public double getFootprintX(int point) {
+      return footprintX[point];
+   }
+
+   public double getFootprintY(int point) {
+      return footprintY[point];
+   }
+}
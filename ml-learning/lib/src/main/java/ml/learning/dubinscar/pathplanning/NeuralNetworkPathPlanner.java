@@ -1,10 +1,15 @@
 package ml.learning.dubinscar.pathplanning;
 
 import java.awt.geom.Point2D;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 import org.nd4j.linalg.api.ndarray.INDArray;
 import org.nd4j.linalg.factory.Nd4j;
 
@@ -14,51 +19,38 @@ import ml.learning.dubinscar.geometry.DubinsCar;
 import ml.learning.dubinscar.geometry.DubinsPath;
 import ml.learning.dubinscar.geometry.Polygon2D;
 import ml.learning.dubinscar.geometry.Waypoint;
+import ml.learning.dubinscar.metrics.LatencyHistogram;
+import ml.learning.dubinscar.metrics.Metrics;
 
 public class NeuralNetworkPathPlanner implements PathPlanner {
 
+   private static final LatencyHistogram PLAN_TIME = Metrics.histogram("planner.planPath");
+   private static final LatencyHistogram PLAN_BATCH_TIME = Metrics.histogram("planner.planPaths");
+
    private final MultiLayerNetwork model;
    private INDArray mostRecentOutput;
    private INDArray mostRecentInput;
 
+   // reused between calls; see getLastInput()
+   private final double[] inputBuffer = new double[getInputSize()];
+   private INDArray input;
+
    public NeuralNetworkPathPlanner(MultiLayerNetwork model) {
       this.model = model;
    }
 
-   private static INDArray createObstacleData(List<Obstacle> obstacles) {
-      int numObstacles = obstacles.size();
-      double[] obstacleData = new double[MAX_POLYGONS * POLYGON_SIZE];
-      for (int i = 0; i < numObstacles; i++) {
-         Polygon2D obstacle = obstacles.get(i).getPolygon();
-         for (int j = 0; j < obstacle.getVertices().size(); j++) {
-            Point2D p = obstacle.getVertices().get(j);
-            obstacleData[i * POLYGON_SIZE + j * 2] = p.getX();
-            obstacleData[i * POLYGON_SIZE + j * 2 + 1] = p.getY();
-         }
-      }
-      return Nd4j.create(obstacleData);
-   }
-
-   private static INDArray createSpeedReductionData(
-         List<SpeedReductionRegion> speedReductionRegions) {
-      int numObstacles = speedReductionRegions.size();
-      double[] obstacleData = new double[MAX_POLYGONS * POLYGON_SIZE];
-      for (int i = 0; i < numObstacles; i++) {
-         Polygon2D obstacle = speedReductionRegions.get(i).getPolygon();
-         for (int j = 0; j < obstacle.getVertices().size(); j++) {
-            Point2D p = obstacle.getVertices().get(j);
-            obstacleData[i * POLYGON_SIZE + j * 2] = p.getX();
-            obstacleData[i * POLYGON_SIZE + j * 2 + 1] = p.getY();
-         }
-      }
-
-      return Nd4j.create(obstacleData);
-   }
-
+   /**
+    * Returns the output of the most recent call. If that call ran inside a
+    * workspace, the output belongs to it and is invalid once it is closed.
+    */
    public INDArray getLastOutput() {
       return mostRecentOutput;
    }
 
+   /**
+    * Returns the features of the most recent call. The matrix is reused, so it
+    * is overwritten by the next call with the same number of requests.
+    */
    public INDArray getLastInput() {
       return mostRecentInput;
    }
@@ -83,57 +75,221 @@ public class NeuralNetworkPathPlanner implements PathPlanner {
    public static INDArray produceInputArray(DubinsCar car, Waypoint start, Waypoint end,
          List<Obstacle> obstacles, List<SpeedReductionRegion> speedReductionRegions,
          Point2D swPoint, Point2D nePoint) {
-      // Convert input data into INDArrays
-      INDArray opArea = Nd4j.create(
-            new double[] { swPoint.getX(), swPoint.getY(), nePoint.getX(), nePoint.getY() });
-      INDArray carState = Nd4j.create(new double[] { car.getRadius(), car.getSpeed() });
-      INDArray startState = Nd4j
-            .create(new double[] { start.getX(), start.getY(), start.getOrientation() });
-      INDArray endState = Nd4j
-            .create(new double[] { end.getX(), end.getY(), end.getOrientation() });
-      INDArray obstacleData = createObstacleData(obstacles);
-      INDArray speedReductionData = createSpeedReductionData(speedReductionRegions);
-
-      INDArray input = Nd4j.hstack(opArea, carState, startState, endState, obstacleData,
-            speedReductionData);
-      return input.reshape(1, input.size(0));
+      double[] input = new double[getInputSize()];
+      encodeInput(car, start, end, obstacles, speedReductionRegions, swPoint, nePoint, input, 0);
+      return Nd4j.create(input, 1, input.length);
+   }
+
+   /**
+    * Writes the network input for a planning problem into a buffer, starting at
+    * the given offset: the op-area, the car, the start and end waypoints, then
+    * the obstacle and speed reduction polygons in fixed-size slots, with unused
+    * slots zeroed.
+    *
+    * @param buffer the buffer to write {@link #getInputSize()} values into
+    * @param offset where in the buffer the input starts
+    * @throws IllegalArgumentException if there are more than
+    *                                  {@link #MAX_POLYGONS} obstacles or
+    *                                  regions, or a polygon has more than
+    *                                  {@link #MAX_VERTICES_PER_POLY} vertices
+    */
+   public static void encodeInput(DubinsCar car, Waypoint start, Waypoint end,
+         List<Obstacle> obstacles, List<SpeedReductionRegion> speedReductionRegions,
+         Point2D swPoint, Point2D nePoint, double[] buffer, int offset) {
+      // a slot overrun would silently overwrite the next feature or row
+      if (obstacles.size() > MAX_POLYGONS || speedReductionRegions.size() > MAX_POLYGONS) {
+         throw new IllegalArgumentException(String.format(
+               "%d obstacles and %d speed reduction regions, at most %d of each fit the input",
+               obstacles.size(), speedReductionRegions.size(), MAX_POLYGONS));
+      }
+      int i = offset;
+      buffer[i++] = swPoint.getX();
+      buffer[i++] = swPoint.getY();
+      buffer[i++] = nePoint.getX();
+      buffer[i++] = nePoint.getY();
+      buffer[i++] = car.getRadius();
+      buffer[i++] = car.getSpeed();
+      buffer[i++] = start.getX();
+      buffer[i++] = start.getY();
+      buffer[i++] = start.getOrientation();
+      buffer[i++] = end.getX();
+      buffer[i++] = end.getY();
+      buffer[i++] = end.getOrientation();
+
+      int obstacleOffset = i;
+      Arrays.fill(buffer, obstacleOffset, obstacleOffset + 2 * MAX_POLYGONS * POLYGON_SIZE, 0);
+      for (int k = 0; k < obstacles.size(); k++) {
+         encodePolygon(obstacles.get(k).getPolygon(), buffer, obstacleOffset + k * POLYGON_SIZE);
+      }
+      int regionOffset = obstacleOffset + MAX_POLYGONS * POLYGON_SIZE;
+      for (int k = 0; k < speedReductionRegions.size(); k++) {
+         encodePolygon(speedReductionRegions.get(k).getPolygon(), buffer,
+               regionOffset + k * POLYGON_SIZE);
+      }
+   }
+
+   private static void encodePolygon(Polygon2D polygon, double[] buffer, int offset) {
+      if (polygon.getVertexCount() > MAX_VERTICES_PER_POLY) {
+         throw new IllegalArgumentException("polygon has " + polygon.getVertexCount()
+               + " vertices, at most " + MAX_VERTICES_PER_POLY + " fit the input");
+      }
+      for (int j = 0; j < polygon.getVertexCount(); j++) {
+         buffer[offset + j * VERTEX_SIZE] = polygon.getX(j);
+         buffer[offset + j * VERTEX_SIZE + 1] = polygon.getY(j);
+      }
+   }
+
+   /**
+    * Writes the network input for a planning request into one row of a feature
+    * matrix, without allocating. The row is copied in bulk into the matrix's
+    * native memory, which {@link #inputMatrix(int)} lays out as c-ordered
+    * doubles.
+    */
+   private void encodeInput(PlanningRequest request, INDArray features, int row) {
+      encodeInput(request.getCar(), request.getStart(), request.getEnd(), request.getObstacles(),
+            request.getSpeedReductionRegions(), request.getSwPoint(), request.getNePoint(),
+            inputBuffer, 0);
+      DoubleBuffer target = features.data().asNio().order(ByteOrder.nativeOrder())
+            .asDoubleBuffer();
+      target.position(row * inputBuffer.length);
+      target.put(inputBuffer);
+   }
+
+   /**
+    * Returns a reusable feature matrix with the given number of rows.
+    */
+   private INDArray inputMatrix(int rows) {
+      if (input == null || input.rows() != rows) {
+         // kept across calls, so it must not live in the caller's workspace
+         try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            input = Nd4j.create(DataType.DOUBLE, rows, getInputSize());
+         }
+      }
+      return input;
+   }
+
+   /**
+    * Runs the network, placing the output in the caller's workspace if one is
+    * open so that it is reclaimed with the rest of the iteration's arrays.
+    */
+   private INDArray forward(INDArray features) {
+      MemoryWorkspace workspace = Nd4j.getMemoryManager().getCurrentWorkspace();
+      return workspace == null ? model.output(features) : model.output(features, false, workspace);
    }
 
    @Override
    public DubinsPath planPath(DubinsCar car, Waypoint start, Waypoint end, List<Obstacle> obstacles,
          List<SpeedReductionRegion> speedReductionRegions, Point2D swPoint, Point2D nePoint) {
 
-      // Stack inputs into a single INDArray
-      INDArray input = produceInputArray(car, start, end, obstacles, speedReductionRegions, swPoint,
-            nePoint);
+      PlanPathEvent event = new PlanPathEvent();
+      event.begin();
+      long startNanos = System.nanoTime();
+      // Encode the inputs into the reusable feature row
+      INDArray input = inputMatrix(1);
+      encodeInput(new PlanningRequest(car, start, end, obstacles, speedReductionRegions, swPoint,
+            nePoint), input, 0);
       mostRecentInput = input;
 
       // Predict output using the neural network
-      INDArray output = model.output(input);
+      INDArray output = forward(input);
       mostRecentOutput = output;
 
       // Convert output into a DubinsPath object
       List<Waypoint> waypoints = outputToWaypoints(output, nePoint, swPoint, start, end);
-      return new DubinsPath(waypoints);
+      DubinsPath path = new DubinsPath(waypoints);
+      PLAN_TIME.recordSince(startNanos);
+      if (event.shouldCommit()) {
+         event.planner = "neural network";
+         event.requests = 1;
+         event.obstacles = obstacles.size();
+         event.waypoints = waypoints.size();
+         event.commit();
+      }
+      return path;
+   }
+
+   /**
+    * Plans paths for many requests with a single forward pass. The requests are
+    * encoded into the rows of one feature matrix and each output row is decoded
+    * into its own path.
+    *
+    * @param requests the planning requests
+    * @return the planned paths, in request order
+    */
+   public List<DubinsPath> planPaths(List<PlanningRequest> requests) {
+      if (requests.isEmpty()) {
+         return new ArrayList<>();
+      }
+
+      PlanPathEvent event = new PlanPathEvent();
+      event.begin();
+      long start = System.nanoTime();
+      INDArray input = inputMatrix(requests.size());
+      for (int i = 0; i < requests.size(); i++) {
+         encodeInput(requests.get(i), input, i);
+      }
+      mostRecentInput = input;
+
+      INDArray output = forward(input);
+      mostRecentOutput = output;
+
+      List<DubinsPath> paths = new ArrayList<>(requests.size());
+      for (int i = 0; i < requests.size(); i++) {
+         PlanningRequest request = requests.get(i);
+         paths.add(new DubinsPath(outputToWaypoints(output.getRow(i, true), request.getNePoint(),
+               request.getSwPoint(), request.getStart(), request.getEnd())));
+      }
+      PLAN_BATCH_TIME.recordSince(start);
+      if (event.shouldCommit()) {
+         event.planner = "neural network";
+         event.requests = requests.size();
+         for (int i = 0; i < requests.size(); i++) {
+            event.obstacles += requests.get(i).getObstacles().size();
+            event.waypoints += paths.get(i).getWaypoints().size();
+         }
+         event.commit();
+      }
+      return paths;
    }
 
    public static INDArray waypointsToOutput(List<Waypoint> waypoints, Point2D nePoint,
          Point2D swPoint, Waypoint start, Waypoint end) {
+      double[] output = new double[getOutputSize()];
+      encodeOutput(waypoints, nePoint, swPoint, output, 0);
+      return Nd4j.create(output, 1, output.length);
+   }
+
+   /**
+    * Writes the network output that describes a path into a buffer, starting at
+    * the given offset. Intermediate waypoints are normalized to the op-area and
+    * unused waypoint slots are filled with -1.
+    *
+    * @param buffer the buffer to write {@link #getOutputSize()} values into
+    * @param offset where in the buffer the output starts
+    * @throws IllegalArgumentException if there are more than
+    *                                  {@link #MAX_WAYPOINTS} intermediate
+    *                                  waypoints
+    */
+   public static void encodeOutput(List<Waypoint> waypoints, Point2D nePoint, Point2D swPoint,
+         double[] buffer, int offset) {
+      if (waypoints.size() - 2 > MAX_WAYPOINTS) {
+         throw new IllegalArgumentException("path has " + (waypoints.size() - 2)
+               + " intermediate waypoints, at most " + MAX_WAYPOINTS + " fit the output");
+      }
       double width = nePoint.getX() - swPoint.getX();
       double height = nePoint.getY() - swPoint.getY();
 
-      double[][] output = new double[1][3 * MAX_WAYPOINTS];
       for (int i = 0; i < waypoints.size() - 2; i++) {
-         output[0][i * 3] = (waypoints.get(i + 1).getX() - swPoint.getX()) / width;
-         output[0][i * 3 + 1] = (waypoints.get(i + 1).getY() - swPoint.getY()) / height;
-         output[0][i * 3 + 2] = waypoints.get(i + 1).getOrientation() / (2 * Math.PI);
+         Waypoint wp = waypoints.get(i + 1);
+         buffer[offset + i * 3] = (wp.getX() - swPoint.getX()) / width;
+         buffer[offset + i * 3 + 1] = (wp.getY() - swPoint.getY()) / height;
+         buffer[offset + i * 3 + 2] = wp.getOrientation() / (2 * Math.PI);
       }
-      for (int i = waypoints.size() - 2; i < MAX_WAYPOINTS; i++) {
-         output[0][i * 3] = -1;
-         output[0][i * 3 + 1] = -1;
-         output[0][i * 3 + 2] = -1;
+      for (int i = Math.max(waypoints.size() - 2, 0); i < MAX_WAYPOINTS; i++) {
+         buffer[offset + i * 3] = -1;
+         buffer[offset + i * 3 + 1] = -1;
+         buffer[offset + i * 3 + 2] = -1;
       }
-      return Nd4j.create(output);
    }
 
    public static List<Waypoint> outputToWaypoints(INDArray output, Point2D nePoint, Point2D swPoint,
@@ -0,0 +1,34 @@
+package ml.learning.dubinscar.pathplanning;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event for one call to a path planner.
+ */
+@Name("ml.learning.dubinscar.PlanPath")
+@Label("Plan Path")
+@Category({ "Dubins Car", "Planning" })
+@Description("A path planner answering one or more planning requests")
+class PlanPathEvent extends Event {
+
+   @Label("Planner")
+   String planner;
+
+   @Label("Requests")
+   int requests;
+
+   @Label("Obstacles")
+   @Description("The number of obstacles, summed over the requests")
+   int obstacles;
+
+   @Label("Waypoints")
+   @Description("The number of waypoints returned, summed over the requests")
+   int waypoints;
+
+   @Label("Nodes Expanded")
+   int nodesExpanded;
+}
@@ -0,0 +1,62 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+
+import ml.learning.dubinscar.environment.Obstacle;
+import ml.learning.dubinscar.environment.SpeedReductionRegion;
+import ml.learning.dubinscar.geometry.DubinsCar;
+import ml.learning.dubinscar.geometry.Waypoint;
+
+/**
+ * The arguments of one {@link PathPlanner#planPath} call, so that many of them
+ * can be handed to a planner at once.
+ */
+public class PlanningRequest {
+   private final DubinsCar car;
+   private final Waypoint start;
+   private final Waypoint end;
+   private final List<Obstacle> obstacles;
+   private final List<SpeedReductionRegion> speedReductionRegions;
+   private final Point2D swPoint;
+   private final Point2D nePoint;
+
+   public PlanningRequest(DubinsCar car, Waypoint start, Waypoint end, List<Obstacle> obstacles,
+         List<SpeedReductionRegion> speedReductionRegions, Point2D swPoint, Point2D nePoint) {
+      this.car = car;
+      this.start = start;
+      this.end = end;
+      this.obstacles = obstacles;
+      this.speedReductionRegions = speedReductionRegions;
+      this.swPoint = swPoint;
+      this.nePoint = nePoint;
+   }
+
+   public DubinsCar getCar() {
+      return car;
+   }
+
+   public Waypoint getStart() {
+      return start;
+   }
+
+   public Waypoint getEnd() {
+      return end;
+   }
+
+   public List<Obstacle> getObstacles() {
+      return obstacles;
+   }
+
+   public List<SpeedReductionRegion> getSpeedReductionRegions() {
+      return speedReductionRegions;
+   }
+
+   public Point2D getSwPoint() {
+      return swPoint;
+   }
+
+   public Point2D getNePoint() {
+      return nePoint;
+   }
+}
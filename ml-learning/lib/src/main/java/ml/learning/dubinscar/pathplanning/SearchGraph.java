@@ -0,0 +1,31 @@
+package ml.learning.dubinscar.pathplanning;
+
+import java.util.function.IntConsumer;
+
+/**
+ * A graph over integer node ids in {@code [0, size())}, as seen by
+ * {@link AStarSearch}. Implementations compute neighbors and costs on demand,
+ * so a graph does not need to store its edges.
+ */
+public interface SearchGraph {
+
+   /**
+    * Returns the number of nodes; every node id is below this value.
+    */
+   int size();
+
+   /**
+    * Passes every neighbor of the given node to the visitor.
+    */
+   void forEachNeighbor(int node, IntConsumer visitor);
+
+   /**
+    * Returns the cost of the edge from one node to a neighbor.
+    */
+   double cost(int from, int to);
+
+   /**
+    * Returns the estimated cost from a node to the goal.
+    */
+   double heuristic(int node, int goal);
+}
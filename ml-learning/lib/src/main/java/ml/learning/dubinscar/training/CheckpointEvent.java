@@ -0,0 +1,26 @@
+package ml.learning.dubinscar.training;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event for writing one network's checkpoint.
+ */
+@Name("ml.learning.dubinscar.Checkpoint")
+@Label("Checkpoint Write")
+@Category({ "Dubins Car", "Training" })
+class CheckpointEvent extends Event {
+
+   @Label("File")
+   String file;
+
+   @Label("Size")
+   @DataAmount
+   long size;
+
+   @Label("Sequence")
+   long sequence;
+}
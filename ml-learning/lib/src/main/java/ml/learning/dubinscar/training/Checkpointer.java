@@ -0,0 +1,185 @@
+package ml.learning.dubinscar.training;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * Saves networks on a background thread so that training never waits for the
+ * disk. A checkpoint copies the networks in memory on the calling thread; the
+ * copies are then written to a temporary file, forced to disk, and atomically
+ * renamed over the checkpoint file, so a crash leaves either the previous or
+ * the new checkpoint and never a partial one. If a checkpoint is still being
+ * written when the next is requested, only the newest pending one is kept.
+ * <p>
+ * Besides the checkpoint file, the last {@code keepLast} checkpoints are kept
+ * as {@code <file>.<sequence>}, numbered upwards across restarts.
+ */
+public class Checkpointer implements Closeable {
+
+   private final File[] files;
+   private final int keepLast;
+   private final long[] sequence;
+   private final ThreadPoolExecutor writer;
+
+   /**
+    * Creates a checkpointer for a fixed list of networks.
+    *
+    * @param keepLast how many numbered checkpoints to keep, or 0 for none
+    * @param files    the checkpoint file of each network
+    */
+   public Checkpointer(int keepLast, File... files) {
+      if (keepLast < 0) {
+         throw new IllegalArgumentException("keepLast must not be negative: " + keepLast);
+      }
+      this.files = files.clone();
+      this.keepLast = keepLast;
+      this.sequence = new long[files.length];
+      for (int m = 0; m < files.length; m++) {
+         sequence[m] = lastSequence(files[m]);
+      }
+      this.writer = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(1), r -> new Thread(r, "checkpoint-writer"),
+            new ThreadPoolExecutor.DiscardOldestPolicy());
+   }
+
+   /**
+    * Copies the networks and queues the copies to be written. Must be called on
+    * the thread that trains the networks.
+    *
+    * @param models the networks, in the order of the files
+    */
+   public void checkpoint(MultiLayerNetwork... models) {
+      if (models.length != files.length) {
+         throw new IllegalArgumentException(
+               "expected " + files.length + " networks, got " + models.length);
+      }
+      MultiLayerNetwork[] copies = new MultiLayerNetwork[models.length];
+      try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+         for (int m = 0; m < models.length; m++) {
+            copies[m] = models[m].clone();
+         }
+      }
+      writer.execute(() -> write(copies));
+   }
+
+   private void write(MultiLayerNetwork[] copies) {
+      for (int m = 0; m < copies.length; m++) {
+         try {
+            write(copies[m], m);
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   private void write(MultiLayerNetwork model, int m) throws IOException {
+      CheckpointEvent event = new CheckpointEvent();
+      event.begin();
+      Path target = files[m].toPath();
+      Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+      try {
+         model.save(temp.toFile(), true);
+         try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.force(true);
+         }
+         Files.move(temp, target, StandardCopyOption.ATOMIC_MOVE,
+               StandardCopyOption.REPLACE_EXISTING);
+      } catch (IOException | RuntimeException e) {
+         // don't leave a partial file behind
+         try {
+            Files.deleteIfExists(temp);
+         } catch (IOException suppressed) {
+            e.addSuppressed(suppressed);
+         }
+         throw e;
+      }
+
+      if (keepLast > 0) {
+         long next = ++sequence[m];
+         Path numbered = numbered(target, next);
+         try {
+            Files.createLink(numbered, target);
+         } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(target, numbered, StandardCopyOption.REPLACE_EXISTING);
+         }
+         // also catches older ones, left by failed writes or a larger keepLast
+         for (long old : sequences(files[m])) {
+            if (old <= next - keepLast) {
+               Files.deleteIfExists(numbered(target, old));
+            }
+         }
+      }
+
+      if (event.shouldCommit()) {
+         event.file = target.toString();
+         event.size = Files.size(target);
+         event.sequence = sequence[m];
+         event.commit();
+      }
+   }
+
+   private static Path numbered(Path target, long sequence) {
+      return target.resolveSibling(target.getFileName() + "." + sequence);
+   }
+
+   /**
+    * Returns the highest sequence number among the existing numbered
+    * checkpoints of a file, or 0.
+    */
+   private static long lastSequence(File file) {
+      long last = 0;
+      for (long sequence : sequences(file)) {
+         last = Math.max(last, sequence);
+      }
+      return last;
+   }
+
+   /**
+    * Returns the sequence numbers of the existing numbered checkpoints of a
+    * file, in no particular order.
+    */
+   private static List<Long> sequences(File file) {
+      File directory = file.getAbsoluteFile().getParentFile();
+      String prefix = file.getName() + ".";
+      String[] names = directory == null ? null : directory.list();
+      List<Long> sequences = new ArrayList<>();
+      if (names != null) {
+         for (String name : names) {
+            if (name.startsWith(prefix) && name.length() > prefix.length()
+                  && name.substring(prefix.length()).chars().allMatch(Character::isDigit)) {
+               sequences.add(Long.parseLong(name.substring(prefix.length())));
+            }
+         }
+      }
+      return sequences;
+   }
+
+   /**
+    * Waits for the pending checkpoint, if any, to be written and stops the
+    * writer thread.
+    */
+   @Override
+   public void close() {
+      writer.shutdown();
+      try {
+         writer.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}
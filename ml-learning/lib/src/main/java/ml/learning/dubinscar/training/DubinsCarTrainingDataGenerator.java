@@ -3,15 +3,20 @@ package ml.learning.dubinscar.training;
 import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
+import java.util.stream.LongStream;
+import java.util.stream.Stream;
 
 import ml.learning.dubinscar.environment.Obstacle;
+import ml.learning.dubinscar.environment.ObstacleIndex;
+import ml.learning.dubinscar.environment.SpeedMap;
 import ml.learning.dubinscar.environment.SpeedReductionRegion;
 import ml.learning.dubinscar.geometry.DubinsCar;
 import ml.learning.dubinscar.geometry.DubinsPath;
 import ml.learning.dubinscar.geometry.Polygon2D;
 import ml.learning.dubinscar.geometry.Waypoint;
 import ml.learning.dubinscar.pathplanning.NeuralNetworkPathPlanner;
+import ml.learning.dubinscar.pathplanning.PlanningRequest;
 
 public class DubinsCarTrainingDataGenerator {
 
@@ -24,6 +29,8 @@ public class DubinsCarTrainingDataGenerator {
       private DubinsPath dubinsPath;
       private Point2D swPoint;
       private Point2D nePoint;
+      private volatile ObstacleIndex obstacleIndex;
+      private volatile SpeedMap speedMap;
 
       TrainingExample(DubinsCar car, Waypoint start, Waypoint end, List<Obstacle> obstacles,
             List<SpeedReductionRegion> speedReductionRegions, Point2D swPoint, Point2D nePoint,
@@ -62,6 +69,42 @@ public class DubinsCarTrainingDataGenerator {
          return obstacles;
       }
 
+      /**
+       * Returns a spatial index over this example's obstacles, building it on
+       * first use.
+       *
+       * @return the obstacle index for this example
+       */
+      public ObstacleIndex getObstacleIndex() {
+         ObstacleIndex index = obstacleIndex;
+         if (index == null) {
+            index = new ObstacleIndex(obstacles, swPoint, nePoint);
+            obstacleIndex = index;
+         }
+         return index;
+      }
+
+      /**
+       * Returns a speed map of this example's speed reduction regions,
+       * building it on first use. Obstacles are left out of the map: they are
+       * scored by exact collision tests against {@link #getObstacleIndex()}.
+       *
+       * @return the speed map for this example
+       */
+      public SpeedMap getSpeedMap() {
+         SpeedMap map = speedMap;
+         if (map == null) {
+            map = new SpeedMap(List.of(), speedReductionRegions, swPoint, nePoint);
+            speedMap = map;
+         }
+         return map;
+      }
+
+      public PlanningRequest getPlanningRequest() {
+         return new PlanningRequest(car, start, end, obstacles, speedReductionRegions, swPoint,
+               nePoint);
+      }
+
       public List<SpeedReductionRegion> getSpeedReductionRegions() {
          return speedReductionRegions;
       }
@@ -73,11 +116,22 @@ public class DubinsCarTrainingDataGenerator {
    }
 
    public static DubinsCarTrainingDataGenerator getDefault() {
-      return new DubinsCarTrainingDataGenerator(new Random().nextLong(), 100, 100, 10, 5, 10, 10, 25,
+      return getDefault(new SplittableRandom().nextLong());
+   }
+
+   /**
+    * Returns the default generator with the given master seed.
+    */
+   public static DubinsCarTrainingDataGenerator getDefault(long seed) {
+      return new DubinsCarTrainingDataGenerator(seed, 100, 100, 10, 5, 10, 10, 25,
             NeuralNetworkPathPlanner.MAX_VERTICES_PER_POLY, NeuralNetworkPathPlanner.MAX_POLYGONS);
    }
 
-   private final Random random;
+   // the increment SplittableRandom advances its seed by
+   private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+   private final long seed;
+   private final SplittableRandom random;
 
    private final double environmentWidth;
    private final double environmentHeight;
@@ -95,7 +149,8 @@ public class DubinsCarTrainingDataGenerator {
    public DubinsCarTrainingDataGenerator(long seed, double environmentWidth,
          double environmentHeight, int maxSpeed, double turnRadius, int maxNumWaypoints,
          double minObstacleWidth, double maxObstacleWidth, int maxVertices, int maxNumPolygons) {
-      this.random = new Random(seed);
+      this.seed = seed;
+      this.random = new SplittableRandom(seed);
 
       this.environmentWidth = environmentWidth;
       this.environmentHeight = environmentHeight;
@@ -111,24 +166,77 @@ public class DubinsCarTrainingDataGenerator {
       this.maxNumPolygons = maxNumPolygons;
    }
 
+   public long getSeed() {
+      return seed;
+   }
+
+   /**
+    * Generates examples from this generator's own random stream. Not
+    * thread-safe.
+    */
    public List<TrainingExample> generateTrainingData(int numSamples) {
       List<TrainingExample> trainingData = new ArrayList<>(numSamples);
       for (int i = 0; i < numSamples; i++) {
-         Waypoint start = generateRandomWaypoint();
-         Waypoint end = generateRandomWaypoint();
-         List<Obstacle> obstacles = generateRandomObstacles();
-         List<SpeedReductionRegion> speedReductionRegions = new ArrayList<>();// generateRandomSpeedReductionRegions();
-         DubinsCar dubinsCar = new DubinsCar(start.getX(), start.getY(), start.getOrientation(),
-               turnRadius, maxSpeed);
-         DubinsPath dubinsPath = generateRandomDubinsPath(start, end);
-         trainingData.add(new TrainingExample(dubinsCar, start, end, obstacles,
-               speedReductionRegions, new Point2D.Double(0, 0),
-               new Point2D.Double(environmentWidth, environmentHeight), dubinsPath));
+         trainingData.add(generateTrainingExample(random));
       }
       return trainingData;
    }
 
+   /**
+    * Generates the example with the given index in the dataset defined by the
+    * master seed. Each index draws from its own random stream, seeded by the
+    * index-th value of the master seed's stream, so the example depends only on
+    * the seed and the index. Thread-safe.
+    *
+    * @param index the index of the example
+    * @return the example
+    */
+   public TrainingExample generateTrainingExample(long index) {
+      long indexSeed = mix64(seed + (index + 1) * GOLDEN_GAMMA);
+      return generateTrainingExample(new SplittableRandom(indexSeed));
+   }
+
+   /**
+    * Returns a parallel stream of the first {@code count} examples of the
+    * dataset defined by the master seed. The examples are spread over the
+    * common fork-join pool; the same seed always gives the same examples in
+    * the same encounter order.
+    *
+    * @param count the number of examples
+    * @return a parallel stream of the examples
+    */
+   public Stream<TrainingExample> stream(long count) {
+      return LongStream.range(0, count).parallel().mapToObj(this::generateTrainingExample);
+   }
+
+   /**
+    * The finalizer of SplittableRandom's nextLong(), so that index-th seeds
+    * are well spread.
+    */
+   private static long mix64(long z) {
+      z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+      z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+      return z ^ (z >>> 31);
+   }
+
+   private TrainingExample generateTrainingExample(SplittableRandom random) {
+      Waypoint start = generateRandomWaypoint(random);
+      Waypoint end = generateRandomWaypoint(random);
+      List<Obstacle> obstacles = generateRandomObstacles(random);
+      List<SpeedReductionRegion> speedReductionRegions = new ArrayList<>();// generateRandomSpeedReductionRegions(random);
+      DubinsCar dubinsCar = new DubinsCar(start.getX(), start.getY(), start.getOrientation(),
+            turnRadius, maxSpeed);
+      DubinsPath dubinsPath = generateRandomDubinsPath(random, start, end);
+      return new TrainingExample(dubinsCar, start, end, obstacles, speedReductionRegions,
+            new Point2D.Double(0, 0), new Point2D.Double(environmentWidth, environmentHeight),
+            dubinsPath);
+   }
+
    public Waypoint generateRandomWaypoint() {
+      return generateRandomWaypoint(random);
+   }
+
+   private Waypoint generateRandomWaypoint(SplittableRandom random) {
       double x = random.nextDouble() * environmentWidth;
       double y = random.nextDouble() * environmentHeight;
       double orientation = random.nextDouble() * Math.PI * 2;
@@ -140,22 +248,22 @@ public class DubinsCarTrainingDataGenerator {
     *
     * @return a list of random obstacles
     */
-   private List<Obstacle> generateRandomObstacles() {
+   private List<Obstacle> generateRandomObstacles(SplittableRandom random) {
       List<Obstacle> obstacles = new ArrayList<>();
 
       int numRegions = random.nextInt(maxNumPolygons);
 
       for (int i = 0; i < numRegions; i++) {
-         Polygon2D poly = generateRandomPolygon2D();
+         Polygon2D poly = generateRandomPolygon2D(random);
          obstacles.add(new Obstacle(poly, 0.0));
       }
 
       return obstacles;
    }
 
-   private Polygon2D generateRandomPolygon2D() {
+   private Polygon2D generateRandomPolygon2D(SplittableRandom random) {
       // Generate a random polygon with a random number of vertices
-      int numVertices = (int) (Math.random() * (maxVertices - 3)) + 3;
+      int numVertices = (int) (random.nextDouble() * (maxVertices - 3)) + 3;
 
       double centerX = random.nextDouble() * environmentWidth;
       double centerY = random.nextDouble() * environmentHeight;
@@ -177,13 +285,14 @@ public class DubinsCarTrainingDataGenerator {
     *
     * @return a list of random speed reduction regions
     */
-   private List<SpeedReductionRegion> generateRandomSpeedReductionRegions() {
+   private List<SpeedReductionRegion> generateRandomSpeedReductionRegions(
+         SplittableRandom random) {
       List<SpeedReductionRegion> regions = new ArrayList<>();
 
       int numRegions = random.nextInt(maxNumPolygons);
 
       for (int i = 0; i < numRegions; i++) {
-         Polygon2D poly = generateRandomPolygon2D();
+         Polygon2D poly = generateRandomPolygon2D(random);
          regions.add(new SpeedReductionRegion(poly, 0.5));
       }
 
@@ -196,14 +305,15 @@ public class DubinsCarTrainingDataGenerator {
     *
     * @return a random Dubins path
     */
-   private DubinsPath generateRandomDubinsPath(Waypoint start, Waypoint end) {
+   private DubinsPath generateRandomDubinsPath(SplittableRandom random, Waypoint start,
+         Waypoint end) {
       List<Waypoint> waypoints = new ArrayList<>();
 
       waypoints.add(start);
 
       int numWaypoints = random.nextInt(maxNumWaypoints - 2);
       for (int i = 0; i < numWaypoints; i++) {
-         waypoints.add(generateRandomWaypoint());
+         waypoints.add(generateRandomWaypoint(random));
       }
 
       waypoints.add(end);
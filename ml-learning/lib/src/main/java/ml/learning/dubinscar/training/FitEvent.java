@@ -0,0 +1,24 @@
+package ml.learning.dubinscar.training;
+
+import jdk.jfr.Category;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event for one fit of a network.
+ */
+@Name("ml.learning.dubinscar.Fit")
+@Label("Fit")
+@Category({ "Dubins Car", "Training" })
+class FitEvent extends Event {
+
+   @Label("Rows")
+   int rows;
+
+   @Label("Pretraining")
+   boolean pretraining;
+
+   @Label("Score")
+   double score;
+}
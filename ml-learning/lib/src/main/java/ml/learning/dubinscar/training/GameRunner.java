@@ -4,21 +4,27 @@ import java.awt.geom.Point2D;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.PriorityQueue;
 import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
-import org.nd4j.linalg.api.ndarray.INDArray;
 
-import ml.learning.dubinscar.environment.Obstacle;
 import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.geometry.DubinsPathSolver;
+import ml.learning.dubinscar.geometry.DubinsPathSolver.Word;
 import ml.learning.dubinscar.geometry.Waypoint;
+import ml.learning.dubinscar.metrics.LatencyHistogram;
+import ml.learning.dubinscar.metrics.Metrics;
+import ml.learning.dubinscar.pathplanning.AStarSearch;
+import ml.learning.dubinscar.pathplanning.EdgeCostCache;
+import ml.learning.dubinscar.pathplanning.LatticeGraph;
 import ml.learning.dubinscar.pathplanning.NeuralNetworkPathPlanner;
 import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+import ml.learning.dubinscar.visualize.PathSnapshot;
+import ml.learning.dubinscar.visualize.PathView;
 
 public class GameRunner {
 
@@ -26,19 +32,32 @@ public class GameRunner {
 
    private static final double DESIRED_VALUE = 0;
 
+   private static final LatencyHistogram MATCH_TIME = Metrics.histogram("match.total");
+   private static final LatencyHistogram GENERATION_TIME = Metrics.histogram("match.generation");
+   private static final LatencyHistogram STRAIGHT_TIME = Metrics
+         .histogram("match.solution.straight");
+   private static final LatencyHistogram GRAPH_TIME = Metrics.histogram("match.solution.graph");
+   private static final LatencyHistogram RANDOM_TIME = Metrics.histogram("match.solution.random");
+   private static final LatencyHistogram MODEL_TIME = Metrics.histogram("match.solution.model");
+   private static final LatencyHistogram SCORING_TIME = Metrics.histogram("match.scoring");
+   private static final LatencyHistogram ENCODING_TIME = Metrics.histogram("match.encoding");
+   private static final LongAdder MODEL1_WINS = Metrics.counter("match.result.model1");
+   private static final LongAdder MODEL2_WINS = Metrics.counter("match.result.model2");
+   private static final LongAdder TIES = Metrics.counter("match.result.tie");
+
+   /**
+    * The outcome of a match. The features and labels are plain heap rows, so a
+    * match allocates no off-heap arrays for them; the learner copies them into
+    * its own preallocated matrices.
+    */
    public static class GameResult {
       int result;
-      INDArray features;
-      INDArray labels;
-   }
-
-   private INDArray computeOutput(DubinsPath path, TrainingExample trainingExample) {
-      return NeuralNetworkPathPlanner.waypointsToOutput(path.getWaypoints(),
-            trainingExample.getNePoint(), trainingExample.getSwPoint(), trainingExample.getStart(),
-            trainingExample.getEnd());
+      final double[] features = new double[NeuralNetworkPathPlanner.getInputSize()];
+      final double[] labels = new double[NeuralNetworkPathPlanner.getOutputSize()];
    }
 
    private DubinsPath straightPath(TrainingExample data) {
+      long start = System.nanoTime();
       List<Waypoint> waypoints = new ArrayList<>();
 
       waypoints.add(data.getStart());
@@ -56,143 +75,133 @@ public class GameRunner {
 
       waypoints.add(data.getEnd());
 
-      return new DubinsPath(waypoints);
+      DubinsPath path = new DubinsPath(waypoints);
+      STRAIGHT_TIME.recordSince(start);
+      return path;
    }
 
-   private static class Node {
-      Waypoint wp;
+   private static final int DISCRETIZATION_LEVEL = 50;
+   private static final int NEIGHBOR_DIST = DISCRETIZATION_LEVEL / 4;
 
-      List<Node> neighbors = new ArrayList<>();
-
-      double gScore = -1;
-      double fScore = -1;
-      Node previous;
-
-      Node(Waypoint wp) {
-         this.wp = wp;
-      }
+   // shared by every match and thread; rebuilt only if the op-area changes
+   private static volatile LatticeGraph lattice;
 
-      List<Node> neighbors() {
-         return neighbors;
+   private static LatticeGraph latticeFor(TrainingExample data) {
+      LatticeGraph current = lattice;
+      if (current == null || !current.matches(data.getSwPoint(), data.getNePoint(),
+            DISCRETIZATION_LEVEL, NEIGHBOR_DIST)) {
+         current = new LatticeGraph(data.getSwPoint(), data.getNePoint(), DISCRETIZATION_LEVEL,
+               NEIGHBOR_DIST);
+         lattice = current;
       }
+      return current;
    }
 
-   private Node search(Node start, Node goal, TrainingExample trainingExample) {
-      PriorityQueue<Node> openSet = new PriorityQueue<>((n1, n2) -> {
-         return n1.fScore > n2.fScore ? 1 : n1.fScore == n2.fScore ? 0 : -1;
-      });
-      openSet.add(start);
-
-      Set<Node> closedSet = new HashSet<>();
-
-      while (!openSet.isEmpty()) {
-         Node current = openSet.poll();
-
-         if (current.equals(goal)) {
-            return current;
-         }
-
-         closedSet.add(current);
-
-         for (Node neighbor : current.neighbors()) {
-            if (closedSet.contains(neighbor)) {
-               continue;
-            }
+   /**
+    * Scores lattice edges for one environment, memoizing them by node id.
+    */
+   private class LatticeQuery extends LatticeGraph.Query {
+      private final TrainingExample trainingExample;
 
-            double tentativeGScore = current.gScore
-                  + segmentDuration(current.wp, neighbor.wp, trainingExample);
+      int edgesChecked;
 
-            if (neighbor.gScore < 0 || tentativeGScore < neighbor.gScore) {
-               neighbor.previous = current;
-               neighbor.gScore = tentativeGScore;
-               neighbor.fScore = neighbor.gScore
-                     + segmentDuration(neighbor.wp, goal.wp, trainingExample);
+      LatticeQuery(LatticeGraph lattice, TrainingExample trainingExample) {
+         super(lattice, trainingExample.getStart(), trainingExample.getEnd());
+         this.trainingExample = trainingExample;
+      }
 
-               if (!openSet.contains(neighbor)) {
-                  openSet.add(neighbor);
-               }
-            }
-         }
+      @Override
+      public double cost(int from, int to) {
+         edgesChecked++;
+         return edgeDuration(this, from, to, trainingExample);
       }
 
-      return null;
+      @Override
+      public double heuristic(int node, int goal) {
+         return edgeDuration(this, node, goal, trainingExample);
+      }
    }
 
-   private DubinsPath graphPath(TrainingExample data) {
-
-      Node start = new Node(data.getStart());
-      start.gScore = 0;
-      start.fScore = 0;
-
-      Node end = new Node(data.getEnd());
-
-      Point2D sw = data.getSwPoint();
-      Point2D ne = data.getNePoint();
-
-      int discretizationLevel = 50;
-      Node[][] graph = new Node[discretizationLevel][discretizationLevel];
-      for (int i = 0; i < discretizationLevel; i++) {
-         for (int j = 0; j < discretizationLevel; j++) {
-            graph[i][j] = new Node(
-                  new Waypoint((double) i / discretizationLevel * (ne.getX() - sw.getX()),
-                        (double) j / discretizationLevel * (ne.getY() - sw.getY()), 0));
-         }
+   private static final ThreadLocal<AStarSearch> searches = ThreadLocal
+         .withInitial(AStarSearch::new);
+
+   /**
+    * Returns the duration of the edge between two lattice nodes, computing it
+    * only the first time the edge is asked for in the current environment.
+    */
+   private double edgeDuration(LatticeGraph.Query query, int from, int to,
+         TrainingExample trainingExample) {
+      if (edgeCostsExample != trainingExample) {
+         edgeCosts.clear();
+         edgeCostsExample = trainingExample;
       }
-
-      int neighborDist = discretizationLevel / 4;
-      for (int i = 0; i < discretizationLevel; i++) {
-         for (int j = 0; j < discretizationLevel; j++) {
-
-            if (distance(graph[i][j].wp, end.wp) < sw.distance(ne) / discretizationLevel
-                  * neighborDist) {
-               graph[i][j].neighbors().add(end);
-            }
-
-            if (distance(graph[i][j].wp, start.wp) < sw.distance(ne) / discretizationLevel
-                  * neighborDist) {
-               start.neighbors().add(graph[i][j]);
-            }
-
-            for (int k = -neighborDist; k < neighborDist; k++) {
-               if (i + k >= 0 && i + k < discretizationLevel) {
-                  for (int l = -neighborDist; l < neighborDist; l++) {
-                     if ((k != 0 || l != 0) && j + l >= 0 && j + l < discretizationLevel)
-                        graph[i][j].neighbors.add(graph[i + k][j + l]);
-                  }
-               }
-            }
-         }
+      double duration = edgeCosts.get(from, to);
+      if (Double.isNaN(duration)) {
+         duration = segmentDuration(query.getX(from), query.getY(from), query.getX(to),
+               query.getY(to), trainingExample);
+         edgeCosts.put(from, to, duration);
+         edgesComputed++;
       }
+      return duration;
+   }
 
-      Node result = search(start, end, data);
+   private DubinsPath graphPath(TrainingExample data) {
+      long start = System.nanoTime();
+      DubinsPath path = graphPath(data, latticeFor(data));
+      GRAPH_TIME.recordSince(start);
+      return path;
+   }
 
-      if (result == null) {
-         return new DubinsPath(Arrays.asList(data.getStart(), data.getEnd()));
+   /**
+    * Searches the given lattice for the quickest path. Package-private so that
+    * the search can be benchmarked at other lattice resolutions.
+    */
+   DubinsPath graphPath(TrainingExample data, LatticeGraph lattice) {
+      GraphSearchEvent event = new GraphSearchEvent();
+      event.begin();
+      edgesComputed = 0;
+      LatticeQuery query = new LatticeQuery(lattice, data);
+
+      AStarSearch search = searches.get();
+      boolean found = search.search(query, query.getStartId(), query.getGoalId());
+      DubinsPath path = found ? collectPath(search, query) : null;
+      if (path == null) {
+         path = new DubinsPath(Arrays.asList(data.getStart(), data.getEnd()));
       }
 
-      // collect the final path
-      List<Waypoint> reverseList = new ArrayList<>();
-      Node current = end;
-      while (current.previous != null) {
-         reverseList.add(current.wp);
-         current = current.previous;
+      if (event.shouldCommit()) {
+         event.obstacles = data.getObstacles().size();
+         event.resolution = lattice.getResolution();
+         event.nodesExpanded = search.getExpandedCount();
+         event.edgesChecked = query.edgesChecked;
+         event.edgesComputed = edgesComputed;
+         event.found = found;
+         event.waypoints = path.getWaypoints().size();
+         event.commit();
       }
-      reverseList.add(current.wp);
+      return path;
+   }
 
-      List<Waypoint> waypoints = new ArrayList<>(reverseList.size());
-      for (int i = reverseList.size() - 1; i >= 0; i--) {
-         waypoints.add(reverseList.get(i));
+   /**
+    * Collects the path the search found, or returns null if it has more than
+    * 12 waypoints.
+    */
+   private static DubinsPath collectPath(AStarSearch search, LatticeQuery query) {
+      int[] pathIds = new int[12];
+      int length = search.getPath(query.getGoalId(), pathIds);
+      if (length < 0) {
+         return null;
       }
 
-      if (waypoints.size() > 12) {
-         return new DubinsPath(Arrays.asList(data.getStart(), data.getEnd()));
+      List<Waypoint> waypoints = new ArrayList<>(length);
+      for (int i = 0; i < length; i++) {
+         waypoints.add(query.getWaypoint(pathIds[i]));
       }
-
       return new DubinsPath(waypoints);
    }
 
    private DubinsPath randomPath(TrainingExample data) {
-
+      long start = System.nanoTime();
       List<Waypoint> waypoints = new ArrayList<>();
 
       waypoints.add(data.getStart());
@@ -207,19 +216,32 @@ public class GameRunner {
 
       waypoints.add(data.getEnd());
 
-      return new DubinsPath(waypoints);
+      DubinsPath path = new DubinsPath(waypoints);
+      RANDOM_TIME.recordSince(start);
+      return path;
    }
 
    private DubinsPath useModel(MultiLayerNetwork model, TrainingExample trainingExample) {
+      long start = System.nanoTime();
       NeuralNetworkPathPlanner pathPlanner = new NeuralNetworkPathPlanner(model);
-      return pathPlanner.planPath(trainingExample.getCar(), trainingExample.getStart(),
+      DubinsPath path = pathPlanner.planPath(trainingExample.getCar(), trainingExample.getStart(),
             trainingExample.getEnd(), trainingExample.getObstacles(),
             trainingExample.getSpeedReductionRegions(), trainingExample.getSwPoint(),
             trainingExample.getNePoint());
+      MODEL_TIME.recordSince(start);
+      return path;
    }
 
    int solutionCount = 0;
 
+   private final EdgeCostCache edgeCosts = new EdgeCostCache();
+   private TrainingExample edgeCostsExample;
+
+   // reported by the flight recorder events of the current search and match
+   private int edgesComputed;
+   private int collisionChecks;
+   private int collisions;
+
    private DubinsPath getASolution(MultiLayerNetwork model, TrainingExample trainingExample) {
       solutionCount++;
 
@@ -242,9 +264,9 @@ public class GameRunner {
 //         return graphPath(trainingExample);
 //      }
 
-      if (controller < 0.33 * (horizon - count) / horizon) {
+      if (controller < 0.33 * (horizon - count.get()) / horizon) {
          return randomPath(trainingExample);
-      } else if (controller < 0.66 * (horizon - count) / horizon) {
+      } else if (controller < 0.66 * (horizon - count.get()) / horizon) {
          return straightPath(trainingExample);
       }
       return useModel(model, trainingExample);
@@ -254,80 +276,105 @@ public class GameRunner {
       // Play a single match between two models and return the result
       // 1 if model1 wins, -1 if model2 wins, 0 if draw
 
+      MatchEvent event = new MatchEvent();
+      event.begin();
+      collisionChecks = 0;
+      collisions = 0;
+      long start = System.nanoTime();
       DubinsCarTrainingDataGenerator generator = DubinsCarTrainingDataGenerator.getDefault();
       TrainingExample trainingExample = generator.generateTrainingData(1).get(0);
+      GENERATION_TIME.recordSince(start);
 
       // get output paths
       DubinsPath path1 = getASolution(model1, trainingExample);
       DubinsPath path2 = getASolution(model2, trainingExample);
-      INDArray path1Output = computeOutput(path1, trainingExample);
-      INDArray path2Output = computeOutput(path2, trainingExample);
 
+      long scoringStart = System.nanoTime();
       double path1Dur = determinePathDuration(path1, trainingExample);
       double path2Dur = determinePathDuration(path2, trainingExample);
-      double optimalDur = segmentDuration(trainingExample.getStart(), trainingExample.getEnd(),
-            trainingExample);
+      double optimalDur = legDuration(trainingExample.getStart(), trainingExample.getEnd(),
+            trainingExample, new double[3]);
       optimalDur = optimalDur > DESIRED_VALUE ? optimalDur - DESIRED_VALUE : 0;
+      SCORING_TIME.recordSince(scoringStart);
 
+      long encodingStart = System.nanoTime();
       GameResult result = new GameResult();
-      result.features = NeuralNetworkPathPlanner.produceInputArray(trainingExample.getCar(),
-            trainingExample.getStart(), trainingExample.getEnd(), trainingExample.getObstacles(),
+      NeuralNetworkPathPlanner.encodeInput(trainingExample.getCar(), trainingExample.getStart(),
+            trainingExample.getEnd(), trainingExample.getObstacles(),
             trainingExample.getSpeedReductionRegions(), trainingExample.getSwPoint(),
-            trainingExample.getNePoint());
-      if (path1Dur > path2Dur) {
-         result.result = -1;
-         result.labels = path2Output;
+            trainingExample.getNePoint(), result.features, 0);
+      result.result = path1Dur > path2Dur ? -1 : path1Dur == path2Dur ? 0 : 1;
+      // a tie is labelled with the second model's path
+      NeuralNetworkPathPlanner.encodeOutput((result.result == 1 ? path1 : path2).getWaypoints(),
+            trainingExample.getNePoint(), trainingExample.getSwPoint(), result.labels, 0);
+      ENCODING_TIME.recordSince(encodingStart);
+
+      if (result.result == -1) {
+         MODEL2_WINS.increment();
          printResults(
                String.format("Model 2 won! %f vs %f [optimal %f]. %d %s", path1Dur, path2Dur,
                      optimalDur, path2.getWaypoints().size(), path2.getWaypoints()),
                trainingExample, path2.getWaypoints());
-      } else if (path1Dur == path2Dur) {
-         result.result = 0;
-         result.labels = path2Output;
+      } else if (result.result == 0) {
+         TIES.increment();
          printResults(
                String.format("It was a tie! %f vs %f [optimal %f]. %d %s", path1Dur, path2Dur,
                      optimalDur, path1.getWaypoints().size(), path1.getWaypoints()),
                trainingExample, path1.getWaypoints());
       } else {
-         result.result = 1;
-         result.labels = path1Output;
+         MODEL1_WINS.increment();
          printResults(
                String.format("Model 1 won! %f vs %f [optimal %f]. %d %s", path1Dur, path2Dur,
                      optimalDur, path1.getWaypoints().size(), path1.getWaypoints()),
                trainingExample, path1.getWaypoints());
       }
 
-      return result;
-   }
-
-   private void printIteration(String msg) {
-      if (count++ % 100 == 0) {
-         System.out.println("" + count + ": " + msg);
+      MATCH_TIME.recordSince(start);
+      if (event.shouldCommit()) {
+         event.obstacles = trainingExample.getObstacles().size();
+         event.collisionChecks = collisionChecks;
+         event.collisions = collisions;
+         event.result = result.result;
+         event.waypoints1 = path1.getWaypoints().size();
+         event.waypoints2 = path2.getWaypoints().size();
+         event.commit();
       }
+      return result;
    }
 
    private void printResults(String msg, TrainingExample trainingExample,
          List<Waypoint> waypoints) {
-      printIteration(msg);
-      if (count % 100 == 0) {
-         NeuralNetworkTrainer.visualizer.setStart(trainingExample.getStart());
-         NeuralNetworkTrainer.visualizer.setEnd(trainingExample.getEnd());
-         NeuralNetworkTrainer.visualizer.setWaypoints(waypoints);
-         NeuralNetworkTrainer.visualizer.setObstacles(trainingExample.getObstacles());
-         NeuralNetworkTrainer.visualizer.setOpArea(trainingExample.getSwPoint(),
-               trainingExample.getNePoint());
-         NeuralNetworkTrainer.visualizer.repaint();
+      // matches are played on several threads at once; every 100th one is shown
+      int n = count.incrementAndGet();
+      if (n % 100 == 1) {
+         System.out.println("" + n + ": " + msg);
+      }
+      PathView visualizer = NeuralNetworkTrainer.visualizer;
+      if (n % 100 == 0 && visualizer != null) {
+         visualizer.show(new PathSnapshot(n, trainingExample.getStart(), trainingExample.getEnd(),
+               waypoints, trainingExample.getObstacles(), trainingExample.getSwPoint(),
+               trainingExample.getNePoint()));
       }
    }
 
-   private static int count = 0;
+   private static final AtomicInteger count = new AtomicInteger();
 
+   /**
+    * Scores a path by the time the car takes to drive the Dubins curves between
+    * its waypoints, penalizing legs whose curve hits an obstacle or leaves the
+    * op-area.
+    */
    private double determinePathDuration(DubinsPath path, TrainingExample trainingExample) {
-      double duration = 0;
+      List<Waypoint> waypoints = path.getWaypoints();
+      int n = waypoints.size();
+      if (n < 2) {
+         return Math.abs(DESIRED_VALUE);
+      }
 
-      for (int i = 0; i < path.getWaypoints().size() - 1; i++) {
-         duration += segmentDuration(path.getWaypoints().get(i), path.getWaypoints().get(i + 1),
-               trainingExample);
+      double[] pieces = new double[3];
+      double duration = 0;
+      for (int i = 0; i < n - 1; i++) {
+         duration += legDuration(waypoints.get(i), waypoints.get(i + 1), trainingExample, pieces);
       }
 
       // change the metric to be targeting a specific length, 50
@@ -336,36 +383,59 @@ public class GameRunner {
       return error;
    }
 
-   private double segmentDuration(Waypoint wp1, Waypoint wp2, TrainingExample trainingExample) {
-      double segmentLength = distance(wp1, wp2);
-      if (intersectsObstacle(wp1, wp2, trainingExample)) {
-         segmentLength *= 100;
+   /**
+    * Returns the length of the shortest Dubins curve between two waypoints,
+    * stretched by the speed reductions along it and penalized if the curve
+    * itself, turns included, hits an obstacle or if either end leaves the
+    * op-area.
+    *
+    * @param pieces scratch space for the three piece lengths
+    */
+   private double legDuration(Waypoint from, Waypoint to, TrainingExample trainingExample,
+         double[] pieces) {
+      double radius = trainingExample.getCar().getRadius();
+      Word word = DubinsPathSolver.solve(from.getX(), from.getY(), from.getOrientation(),
+            to.getX(), to.getY(), to.getOrientation(), radius, pieces);
+      double penalty = 1;
+      collisionChecks++;
+      if (trainingExample.getObstacleIndex().intersectsDubins(from.getX(), from.getY(),
+            from.getOrientation(), word, pieces, radius)) {
+         collisions++;
+         penalty *= 100;
       }
-      if (isNotInOpArea(wp1, trainingExample.getSwPoint(), trainingExample.getNePoint())
-            || isNotInOpArea(wp2, trainingExample.getSwPoint(), trainingExample.getNePoint())) {
-         segmentLength *= 100;
-      }
-      return segmentLength;
+      penalty *= opAreaPenalty(from.getX(), from.getY(), to.getX(), to.getY(), trainingExample);
+      return trainingExample.getSpeedMap().integrateDubins(from.getX(), from.getY(),
+            from.getOrientation(), word, pieces, radius) * penalty;
    }
 
-   private boolean isNotInOpArea(Waypoint wp1, Point2D sw, Point2D ne) {
-      return wp1.getX() < sw.getX() || wp1.getX() > ne.getX() || wp1.getY() < sw.getY()
-            || wp1.getY() > ne.getY();
+   private double segmentDuration(double x1, double y1, double x2, double y2,
+         TrainingExample trainingExample) {
+      return trainingExample.getSpeedMap().integrate(x1, y1, x2, y2)
+            * segmentPenalty(x1, y1, x2, y2, trainingExample);
    }
 
-   private double distance(Waypoint wp1, Waypoint wp2) {
-      double deltaX = wp1.getX() - wp2.getX();
-      double deltaY = wp1.getY() - wp2.getY();
-      return Math.sqrt(deltaX * deltaX + deltaY * deltaY);
+   private double segmentPenalty(double x1, double y1, double x2, double y2,
+         TrainingExample trainingExample) {
+      double penalty = 1;
+      collisionChecks++;
+      if (trainingExample.getObstacleIndex().intersects(x1, y1, x2, y2)) {
+         collisions++;
+         penalty *= 100;
+      }
+      return penalty * opAreaPenalty(x1, y1, x2, y2, trainingExample);
    }
 
-   private boolean intersectsObstacle(Waypoint wp1, Waypoint wp2, TrainingExample trainingExample) {
-      for (Obstacle obstacle : trainingExample.getObstacles()) {
-         if (obstacle.intersects(wp1.getPoint2D(), wp2.getPoint2D())) {
-            return true;
-         }
+   private double opAreaPenalty(double x1, double y1, double x2, double y2,
+         TrainingExample trainingExample) {
+      if (isNotInOpArea(x1, y1, trainingExample.getSwPoint(), trainingExample.getNePoint())
+            || isNotInOpArea(x2, y2, trainingExample.getSwPoint(), trainingExample.getNePoint())) {
+         return 100;
       }
-      return false;
+      return 1;
+   }
+
+   private boolean isNotInOpArea(double x, double y, Point2D sw, Point2D ne) {
+      return x < sw.getX() || x > ne.getX() || y < sw.getY() || y > ne.getY();
    }
 
 }
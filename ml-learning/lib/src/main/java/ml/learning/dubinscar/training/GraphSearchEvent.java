@@ -0,0 +1,42 @@
+package ml.learning.dubinscar.training;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event for one lattice search of a self-play match.
+ */
+@Name("ml.learning.dubinscar.GraphSearch")
+@Label("Graph Search")
+@Category({ "Dubins Car", "Self-Play" })
+@Description("An A* search for the quickest path over the lattice")
+class GraphSearchEvent extends Event {
+
+   @Label("Obstacles")
+   int obstacles;
+
+   @Label("Resolution")
+   @Description("The number of lattice nodes along each side")
+   int resolution;
+
+   @Label("Nodes Expanded")
+   int nodesExpanded;
+
+   @Label("Edges Checked")
+   @Description("The number of edge costs the search asked for")
+   int edgesChecked;
+
+   @Label("Edges Computed")
+   @Description("The number of edge durations computed rather than memoized, "
+         + "including for the heuristic")
+   int edgesComputed;
+
+   @Label("Found")
+   boolean found;
+
+   @Label("Waypoints")
+   int waypoints;
+}
@@ -0,0 +1,38 @@
+package ml.learning.dubinscar.training;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * A flight recorder event for one self-play match.
+ */
+@Name("ml.learning.dubinscar.Match")
+@Label("Self-Play Match")
+@Category({ "Dubins Car", "Self-Play" })
+@Description("A match between the two networks, with its collision checks")
+class MatchEvent extends Event {
+
+   @Label("Obstacles")
+   int obstacles;
+
+   @Label("Collision Checks")
+   @Description("The number of segments tested against the obstacles, including by searches")
+   int collisionChecks;
+
+   @Label("Collisions")
+   @Description("The number of tested segments that hit an obstacle")
+   int collisions;
+
+   @Label("Result")
+   @Description("1 if the first network won, -1 if the second did, 0 for a tie")
+   int result;
+
+   @Label("Waypoints 1")
+   int waypoints1;
+
+   @Label("Waypoints 2")
+   int waypoints2;
+}
@@ -1,11 +1,16 @@
 package ml.learning.dubinscar.training;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
 
 import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.geometry.DubinsPathSolver;
 import ml.learning.dubinscar.geometry.Waypoint;
 import ml.learning.dubinscar.pathplanning.NeuralNetworkPathPlanner;
-import ml.learning.dubinscar.pathplanning.PathPlanner;
+import ml.learning.dubinscar.pathplanning.PlanningRequest;
 import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
 
 public class ModelEvaluator {
@@ -15,41 +20,51 @@ public class ModelEvaluator {
       this.numMatches = numMatches;
    }
 
+   private static final int BATCH_SIZE = 256;
+
    public double evaluate(MultiLayerNetwork model1, MultiLayerNetwork model2) {
+      NeuralNetworkPathPlanner pathPlanner1 = new NeuralNetworkPathPlanner(model1);
+      NeuralNetworkPathPlanner pathPlanner2 = new NeuralNetworkPathPlanner(model2);
+      DubinsCarTrainingDataGenerator generator = DubinsCarTrainingDataGenerator.getDefault();
+
       int model1Wins = 0;
       int model2Wins = 0;
-      for (int i = 0; i < numMatches; i++) {
-         int result = playMatch(model1, model2);
-         if (result > 0) {
-            model1Wins++;
-         } else if (result < 0) {
-            model2Wins++;
+      for (int played = 0; played < numMatches; played += BATCH_SIZE) {
+         List<TrainingExample> trainingExamples = generator
+               .generateTrainingData(Math.min(BATCH_SIZE, numMatches - played));
+         List<PlanningRequest> requests = new ArrayList<>(trainingExamples.size());
+         for (TrainingExample trainingExample : trainingExamples) {
+            requests.add(trainingExample.getPlanningRequest());
+         }
+
+         // one forward pass per model for the whole batch, with the activations in
+         // a workspace that is rewound for the next batch
+         List<DubinsPath> paths1;
+         List<DubinsPath> paths2;
+         try (MemoryWorkspace ws = Workspaces.open(Workspaces.EVALUATION)) {
+            paths1 = pathPlanner1.planPaths(requests);
+            paths2 = pathPlanner2.planPaths(requests);
+         }
+
+         for (int i = 0; i < trainingExamples.size(); i++) {
+            int result = scoreMatch(paths1.get(i), paths2.get(i), trainingExamples.get(i));
+            if (result > 0) {
+               model1Wins++;
+            } else if (result < 0) {
+               model2Wins++;
+            }
          }
       }
       return (double) (model1Wins - model2Wins) / numMatches;
    }
 
-   private int playMatch(MultiLayerNetwork model1, MultiLayerNetwork model2) {
-      // Play a single match between two models and return the result
+   private int scoreMatch(DubinsPath path1, DubinsPath path2, TrainingExample trainingExample) {
+      // Score a single match between two models' paths
       // 1 if model1 wins, -1 if model2 wins, 0 if draw
 
-      DubinsCarTrainingDataGenerator generator = DubinsCarTrainingDataGenerator.getDefault();
-      TrainingExample trainingExample = generator.generateTrainingData(1).get(0);
-
-      PathPlanner pathPlanner1 = new NeuralNetworkPathPlanner(model1);
-      PathPlanner pathPlanner2 = new NeuralNetworkPathPlanner(model2);
-
-      DubinsPath path1 = pathPlanner1.planPath(trainingExample.getCar(), trainingExample.getStart(),
-            trainingExample.getEnd(), trainingExample.getObstacles(),
-            trainingExample.getSpeedReductionRegions(), trainingExample.getSwPoint(),
-            trainingExample.getNePoint());
-      DubinsPath path2 = pathPlanner2.planPath(trainingExample.getCar(), trainingExample.getStart(),
-            trainingExample.getEnd(), trainingExample.getObstacles(),
-            trainingExample.getSpeedReductionRegions(), trainingExample.getSwPoint(),
-            trainingExample.getNePoint());
-
-      double path1Dur = determinePathDuration(path1);
-      double path2Dur = determinePathDuration(path2);
+      double radius = trainingExample.getCar().getRadius();
+      double path1Dur = determinePathDuration(path1, radius);
+      double path2Dur = determinePathDuration(path2, radius);
       if (path1Dur > path2Dur) {
          return -1;
       } else if (path1Dur == path2Dur) {
@@ -59,15 +74,13 @@ public class ModelEvaluator {
       }
    }
 
-   private double determinePathDuration(DubinsPath path) {
+   private double determinePathDuration(DubinsPath path, double radius) {
       double duration = 0;
 
       for (int i = 0; i < path.getWaypoints().size() - 1; i++) {
          Waypoint wp = path.getWaypoints().get(i);
          Waypoint next = path.getWaypoints().get(i + 1);
-         double deltaX = wp.getX() - next.getX();
-         double deltaY = wp.getY() - next.getY();
-         duration += deltaX * deltaX + deltaY * deltaY;
+         duration += DubinsPathSolver.shortestLength(wp, next, radius);
       }
 
       return duration;
@@ -1,16 +1,17 @@
 package ml.learning.dubinscar.training;
 
+import java.awt.GraphicsEnvironment;
 import java.io.File;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
 import java.util.Random;
-import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.deeplearning4j.nn.conf.MultiLayerConfiguration;
 import org.deeplearning4j.nn.conf.NeuralNetConfiguration;
@@ -19,27 +20,56 @@ import org.deeplearning4j.nn.conf.layers.OutputLayer;
 import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
 import org.deeplearning4j.nn.weights.WeightInit;
 import org.nd4j.linalg.activations.Activation;
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+import org.nd4j.linalg.indexing.NDArrayIndex;
 import org.nd4j.linalg.learning.config.Adam;
 import org.nd4j.linalg.lossfunctions.LossFunctions;
 
+import ml.learning.dubinscar.metrics.LatencyHistogram;
+import ml.learning.dubinscar.metrics.Metrics;
+import ml.learning.dubinscar.metrics.MetricsReporter;
 import ml.learning.dubinscar.pathplanning.NeuralNetworkPathPlanner;
 import ml.learning.dubinscar.training.GameRunner.GameResult;
+import ml.learning.dubinscar.training.SelfPlayWorker.Snapshot;
 import ml.learning.dubinscar.visualize.DubinsCarPathVisualizer;
+import ml.learning.dubinscar.visualize.PathView;
+import ml.learning.dubinscar.visualize.PngSnapshotWriter;
 
 public class NeuralNetworkTrainer {
 
-   public static DubinsCarPathVisualizer visualizer;
+   /**
+    * Where self-play matches are shown, if anywhere. Set before training.
+    */
+   public static PathView visualizer;
 
    private static final boolean TRAIN = true;
 
    public static final File model1File = new File("model_1_file.nn");
    public static final File model2File = new File("model_2_file.nn");
+   public static final File replayFile = new File("replay_store.bin");
+   public static final File metricsFile = new File("metrics.json");
+   public static final File snapshotDirectory = new File("snapshots");
+   public static final long REPLAY_CAPACITY = 1_000_000;
+   public static final int PRETRAIN_BATCHES = 500;
 
    public static void main(String[] args) throws IOException {
-      visualizer = new DubinsCarPathVisualizer();
+      // without a display, matches are drawn to image files instead
+      PngSnapshotWriter snapshots = null;
+      if (GraphicsEnvironment.isHeadless()) {
+         snapshots = new PngSnapshotWriter(snapshotDirectory);
+         visualizer = snapshots;
+      } else {
+         visualizer = new DubinsCarPathVisualizer();
+      }
 
       MultiLayerNetwork model1;
       MultiLayerNetwork model2;
+      boolean newModels = !model1File.exists() || !model2File.exists();
       if (model1File.exists()) {
          model1 = MultiLayerNetwork.load(model1File, true);
       } else {
@@ -54,8 +84,24 @@ public class NeuralNetworkTrainer {
             model1.numParams()));
 
       NeuralNetworkTrainer trainer = new NeuralNetworkTrainer(model1, model2);
+      if (newModels) {
+         // start new models from the expert planner's paths
+         ScenarioDataSetIterator expertPaths = new ScenarioDataSetIterator(
+               DEFAULT_MINIBATCH_SIZE, PRETRAIN_BATCHES);
+         trainer.pretrain(expertPaths);
+         expertPaths.shutdown();
+      }
 
-      trainer.train(100000);
+      try (ReplayStore replay = new ReplayStore(replayFile, NeuralNetworkPathPlanner.getInputSize(),
+            NeuralNetworkPathPlanner.getOutputSize(), REPLAY_CAPACITY)) {
+         System.out.println(String.format("The replay store holds %d results", replay.size()));
+         trainer.setReplayStore(replay);
+         trainer.train(100000);
+      } finally {
+         if (snapshots != null) {
+            snapshots.close();
+         }
+      }
    }
 
    public static MultiLayerNetwork createNewModel() {
@@ -91,63 +137,300 @@ public class NeuralNetworkTrainer {
       return model;
    }
 
+   public static final int DEFAULT_MINIBATCH_SIZE = 32;
+   public static final int DEFAULT_NUM_WORKERS = Math.max(1,
+         Runtime.getRuntime().availableProcessors() - 1);
+   public static final int PUBLISH_INTERVAL = 4;
+   public static final int DEFAULT_KEEP_CHECKPOINTS = 3;
+   public static final long METRICS_INTERVAL_MILLIS = 10_000;
+   public static final long RESULT_POLL_MILLIS = 1_000;
+   public static final long WORKER_SHUTDOWN_SECONDS = 60;
+
+   private static final LatencyHistogram FIT_TIME = Metrics.histogram("trainer.fit");
+   private static final LatencyHistogram PRETRAIN_FIT_TIME = Metrics
+         .histogram("trainer.pretrainFit");
+   private static final LatencyHistogram SAMPLE_TIME = Metrics.histogram("trainer.replaySample");
+   private static final LatencyHistogram WAIT_TIME = Metrics.histogram("trainer.resultWait");
+
    private MultiLayerNetwork model1;
    private MultiLayerNetwork model2;
+   private final Minibatch minibatch1;
+   private final Minibatch minibatch2;
+   private final int numWorkers;
+   private ReplayStore replay;
+   private int keepCheckpoints = DEFAULT_KEEP_CHECKPOINTS;
+   private final Random replayRandom = new Random();
 
    public NeuralNetworkTrainer(MultiLayerNetwork model1, MultiLayerNetwork model2) {
+      this(model1, model2, DEFAULT_MINIBATCH_SIZE, DEFAULT_NUM_WORKERS);
+   }
+
+   /**
+    * Creates a trainer that fits each model once per {@code minibatchSize}
+    * matches it is trained on.
+    *
+    * @param model1        the first network
+    * @param model2        the second network
+    * @param minibatchSize the number of matches per fit
+    * @param numWorkers    the number of self-play worker threads
+    */
+   public NeuralNetworkTrainer(MultiLayerNetwork model1, MultiLayerNetwork model2,
+         int minibatchSize, int numWorkers) {
+      if (minibatchSize < 1 || numWorkers < 1) {
+         throw new IllegalArgumentException("minibatchSize and numWorkers must be positive: "
+               + minibatchSize + ", " + numWorkers);
+      }
       this.model1 = model1;
       this.model2 = model2;
+      this.minibatch1 = new Minibatch(minibatchSize);
+      this.minibatch2 = new Minibatch(minibatchSize);
+      this.numWorkers = numWorkers;
+      Workspaces.configure(model1);
+      Workspaces.configure(model2);
    }
 
-   public void train(int numIterations) {
+   /**
+    * Makes the trainer keep every match result in a replay store and fit each
+    * step on rows sampled from it, rather than on the latest results only.
+    *
+    * @param replay the store, or null to fit on the latest results
+    */
+   public void setReplayStore(ReplayStore replay) {
+      this.replay = replay;
+   }
+
+   /**
+    * Sets how many numbered checkpoints of each model to keep besides the
+    * model files.
+    */
+   public void setKeepCheckpoints(int keepCheckpoints) {
+      this.keepCheckpoints = keepCheckpoints;
+   }
+
+   /**
+    * Match results waiting to be fit, one row each, in feature and label
+    * matrices that are allocated once and reused for every step.
+    */
+   private static class Minibatch {
+      private final INDArray features;
+      private final INDArray labels;
+      // views of the matrices' native memory, for copying rows in
+      private final FloatBuffer featureRows;
+      private final FloatBuffer labelRows;
+      private int size;
+
+      Minibatch(int capacity) {
+         try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            features = Nd4j.create(DataType.FLOAT, capacity,
+                  NeuralNetworkPathPlanner.getInputSize());
+            labels = Nd4j.create(DataType.FLOAT, capacity,
+                  NeuralNetworkPathPlanner.getOutputSize());
+         }
+         featureRows = features.data().asNio().order(ByteOrder.nativeOrder()).asFloatBuffer();
+         labelRows = labels.data().asNio().order(ByteOrder.nativeOrder()).asFloatBuffer();
+      }
+
+      /**
+       * Copies a match result into the next row and returns true if the
+       * minibatch is now full.
+       */
+      boolean add(GameResult result) {
+         putRow(featureRows, size, result.features);
+         putRow(labelRows, size, result.labels);
+         size++;
+         return size == features.rows();
+      }
+
+      private static void putRow(FloatBuffer matrix, int row, double[] values) {
+         int offset = row * values.length;
+         for (int c = 0; c < values.length; c++) {
+            matrix.put(offset + c, (float) values[c]);
+         }
+      }
+
+      int capacity() {
+         return features.rows();
+      }
+
+      /**
+       * Replaces the rows with a full minibatch sampled from a replay store.
+       */
+      void sample(ReplayStore replay, Random random) {
+         replay.sample(random, features, labels);
+         size = capacity();
+      }
+
+      /**
+       * Fits the model to the rows collected so far, if any, and empties the
+       * minibatch. Returns true if the model was fit.
+       */
+      boolean fit(MultiLayerNetwork model) {
+         if (size == 0) {
+            return false;
+         }
+         FitEvent event = new FitEvent();
+         event.begin();
+         long start = System.nanoTime();
+         if (size == features.rows()) {
+            model.fit(new DataSet(features, labels));
+         } else {
+            model.fit(new DataSet(features.get(NDArrayIndex.interval(0, size), NDArrayIndex.all()),
+                  labels.get(NDArrayIndex.interval(0, size), NDArrayIndex.all())));
+         }
+         FIT_TIME.recordSince(start);
+         commit(event, model, size, false);
+         size = 0;
+         return true;
+      }
+   }
 
-      ExecutorService service = Executors.newFixedThreadPool(1);
+   /**
+    * Fits both networks on every batch of a data set iterator, such as a
+    * {@link ScenarioDataSetIterator} of expert paths, before self-play.
+    */
+   public void pretrain(DataSetIterator data) {
+      while (data.hasNext()) {
+         DataSet batch = data.next();
+         try (MemoryWorkspace ws = Workspaces.open(Workspaces.TRAINING)) {
+            long start = System.nanoTime();
+            for (MultiLayerNetwork model : new MultiLayerNetwork[] { model1, model2 }) {
+               FitEvent event = new FitEvent();
+               event.begin();
+               model.fit(batch);
+               commit(event, model, batch.numExamples(), true);
+            }
+            PRETRAIN_FIT_TIME.recordSince(start);
+         }
+      }
+   }
 
-      int batchSize = 1000;
-      int i = 0;
-      // Train for the specified number of iterations
-      while (i < numIterations) {
-         List<Future<?>> futures = new ArrayList<>();
-         for (; i < numIterations && (i % batchSize != batchSize - 1 || futures.isEmpty()); i++) {
-            int val = i;
-            futures.add(service.submit(() -> {
-               // Play a certain number of games between the current network and the opponent
-               // network
-               GameResult gameResults = new GameRunner().playMatch(model1, model2);
+   private static void commit(FitEvent event, MultiLayerNetwork model, int rows,
+         boolean pretraining) {
+      if (event.shouldCommit()) {
+         event.rows = rows;
+         event.pretraining = pretraining;
+         event.score = model.score();
+         event.commit();
+      }
+   }
+
+   /**
+    * Fits a model to a full minibatch, resampled from the replay store if
+    * there is one.
+    */
+   private boolean step(Minibatch minibatch, MultiLayerNetwork model) {
+      if (replay != null) {
+         long start = System.nanoTime();
+         minibatch.sample(replay, replayRandom);
+         SAMPLE_TIME.recordSince(start);
+      }
+      return minibatch.fit(model);
+   }
+
+   /**
+    * Plays and trains on the given number of matches. Self-play workers play
+    * matches on copies of the networks and queue the results; this thread is
+    * the only one that fits the networks, and it publishes their parameters to
+    * the workers every {@value #PUBLISH_INTERVAL} minibatch steps. Timings of
+    * each phase are dumped to {@link #metricsFile} as training goes.
+    */
+   public void train(int numIterations) {
+      AtomicReference<Snapshot> snapshot = new AtomicReference<>(Snapshot.of(0, model1, model2));
+      BlockingQueue<GameResult> results = new ArrayBlockingQueue<>(4 * minibatch1.capacity());
+      AtomicReference<Throwable> failure = new AtomicReference<>();
+      ExecutorService workers = Executors.newFixedThreadPool(numWorkers);
+      for (int w = 0; w < numWorkers; w++) {
+         workers.execute(new SelfPlayWorker(model1.clone(), model2.clone(), snapshot, results,
+               failure));
+      }
 
+      int saveInterval = 1000;
+      Checkpointer checkpointer = new Checkpointer(keepCheckpoints, model1File, model2File);
+      MetricsReporter metrics = new MetricsReporter(metricsFile, METRICS_INTERVAL_MILLIS);
+      int steps = 0;
+      try {
+         // Train for the specified number of iterations
+         for (int i = 0; i < numIterations; i++) {
+            long waitStart = System.nanoTime();
+            GameResult gameResults = nextResult(results, failure);
+            WAIT_TIME.recordSince(waitStart);
+
+            // the step's temporary arrays live in the training workspace
+            try (MemoryWorkspace ws = Workspaces.open(Workspaces.TRAINING)) {
                if (TRAIN) {
-                  if (val % 2 == 0) {
-                     model1.fit(gameResults.features, gameResults.labels);
+                  if (replay != null) {
+                     replay.append(gameResults.features, gameResults.labels);
+                  }
+                  boolean stepped;
+                  if (i % 2 == 0) {
+                     stepped = minibatch1.add(gameResults) && step(minibatch1, model1);
                   } else {
-                     model2.fit(gameResults.features, gameResults.labels);
+                     stepped = minibatch2.add(gameResults) && step(minibatch2, model2);
+                  }
+                  if (stepped && ++steps % PUBLISH_INTERVAL == 0) {
+                     snapshot.set(Snapshot.of(snapshot.get().version + 1, model1, model2));
                   }
                }
 
-               if (val % 1000 == 0) {
-                  System.out.println(String.format("%d: model1 score=%f; model2 score=%f", val,
+               if (i % 1000 == 0) {
+                  System.out.println(String.format("%d: model1 score=%f; model2 score=%f", i,
                         model1.score(), model2.score()));
                }
-            }));
 
-         }
+               if (TRAIN && (i % saveInterval == saveInterval - 1 || i == numIterations - 1)) {
+                  if (i == numIterations - 1) {
+                     // fit the last partial minibatches
+                     minibatch1.fit(model1);
+                     minibatch2.fit(model2);
+                  }
 
-         for (var f : futures) {
-            try {
-               f.get(100000l, TimeUnit.MILLISECONDS);
-            } catch (InterruptedException | ExecutionException | TimeoutException e) {
-               e.printStackTrace();
+                  // save off the models in the background
+                  checkpointer.checkpoint(model1, model2);
+               }
             }
          }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      } finally {
+         workers.shutdownNow();
+         awaitTermination(workers);
+         checkpointer.close();
+         metrics.close();
+      }
+   }
+
+   /**
+    * Waits for the next match result. Fails as soon as any worker has failed,
+    * rather than waiting on a queue that may never fill again.
+    */
+   private static GameResult nextResult(BlockingQueue<GameResult> results,
+         AtomicReference<Throwable> failure) throws InterruptedException {
+      while (true) {
+         Throwable t = failure.get();
+         if (t instanceof Error) {
+            throw (Error) t;
+         } else if (t != null) {
+            throw new IllegalStateException("self-play worker failed", t);
+         }
+         GameResult result = results.poll(RESULT_POLL_MILLIS, TimeUnit.MILLISECONDS);
+         if (result != null) {
+            return result;
+         }
+      }
+   }
 
-         if (TRAIN) {
-            // save off the models
-            try {
-               model1.save(model1File);
-               model2.save(model2File);
-            } catch (IOException e) {
-               e.printStackTrace();
-            }
+   /**
+    * Waits for interrupted workers to finish their current match, so no
+    * worker still uses the networks' copies once training returns.
+    */
+   private static void awaitTermination(ExecutorService workers) {
+      try {
+         if (!workers.awaitTermination(WORKER_SHUTDOWN_SECONDS, TimeUnit.SECONDS)) {
+            System.err.println("self-play workers did not stop within "
+                  + WORKER_SHUTDOWN_SECONDS + " s");
          }
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
       }
    }
 }
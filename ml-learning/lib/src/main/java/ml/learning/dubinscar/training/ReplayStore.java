@@ -0,0 +1,253 @@
+package ml.learning.dubinscar.training;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Random;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.api.ndarray.INDArray;
+
+/**
+ * A persistent ring buffer of (features, labels) rows for experience replay.
+ * Rows are stored as fixed-width float records in a memory-mapped file, so
+ * the store can hold far more experience than the heap and survives restarts.
+ * Once the store is full, each new row overwrites the oldest one.
+ * <p>
+ * The file starts with a little-endian header holding the row widths, the
+ * capacity, the next write position, the number of rows and the byte order of
+ * the records; the records follow. Records are kept in the host's native
+ * order so that they can be copied straight into matrices, and a store is
+ * refused on a host with the other byte order. The file is mapped in segments
+ * of whole records, so it may be larger than 2 GB. Not thread-safe.
+ */
+public class ReplayStore implements Closeable {
+
+   private static final int MAGIC = 0x52504c59;
+   private static final int FORMAT_VERSION = 1;
+   private static final int HEADER_SIZE = 64;
+   private static final int HEAD_OFFSET = 24;
+   private static final int SIZE_OFFSET = 32;
+   // 0 if the records are little-endian, 1 if big-endian
+   private static final int RECORD_ORDER_OFFSET = 40;
+   private static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+   private final FileChannel channel;
+   private final MappedByteBuffer header;
+   private final MappedByteBuffer[] segments;
+   private final int featureWidth;
+   private final int labelWidth;
+   private final int recordSize;
+   private final long capacity;
+   private final int recordsPerSegment;
+
+   private long head;
+   private long size;
+
+   /**
+    * Opens the store in the given file, creating it if it does not exist. An
+    * existing store must have been created with the same row widths and
+    * capacity.
+    *
+    * @param file         the backing file
+    * @param featureWidth the number of feature values per row
+    * @param labelWidth   the number of label values per row
+    * @param capacity     the maximum number of rows kept
+    * @throws IOException if the file cannot be mapped or does not match
+    */
+   public ReplayStore(File file, int featureWidth, int labelWidth, long capacity)
+         throws IOException {
+      if (featureWidth < 1 || labelWidth < 1 || capacity < 1) {
+         throw new IllegalArgumentException("widths and capacity must be positive: " + featureWidth
+               + ", " + labelWidth + ", " + capacity);
+      }
+      this.featureWidth = featureWidth;
+      this.labelWidth = labelWidth;
+      this.recordSize = (featureWidth + labelWidth) * Float.BYTES;
+      this.capacity = capacity;
+      this.recordsPerSegment = (int) Math.min(capacity, MAX_SEGMENT_SIZE / recordSize);
+
+      boolean exists = file.exists() && file.length() > 0;
+      channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.READ, StandardOpenOption.WRITE);
+      try {
+         header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+         header.order(ByteOrder.LITTLE_ENDIAN);
+         if (exists) {
+            readHeader(file);
+         } else {
+            writeHeader();
+         }
+
+         int segmentCount = (int) ((capacity + recordsPerSegment - 1) / recordsPerSegment);
+         segments = new MappedByteBuffer[segmentCount];
+         for (int s = 0; s < segmentCount; s++) {
+            long records = Math.min(recordsPerSegment, capacity - (long) s * recordsPerSegment);
+            segments[s] = channel.map(FileChannel.MapMode.READ_WRITE,
+                  HEADER_SIZE + (long) s * recordsPerSegment * recordSize, records * recordSize);
+            segments[s].order(ByteOrder.nativeOrder());
+         }
+      } catch (IOException | RuntimeException e) {
+         channel.close();
+         throw e;
+      }
+   }
+
+   private void readHeader(File file) throws IOException {
+      if (header.getInt(0) == Integer.reverseBytes(MAGIC)) {
+         // written by an earlier version with a native-order header
+         throw new IOException("replay store " + file + " was written on a host with a different"
+               + " byte order than " + ByteOrder.nativeOrder());
+      }
+      if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+         throw new IOException("not a replay store: " + file);
+      }
+      if (header.getInt(RECORD_ORDER_OFFSET) != recordOrder()) {
+         throw new IOException("replay store " + file + " holds records in a different byte order"
+               + " than " + ByteOrder.nativeOrder());
+      }
+      if (header.getInt(8) != featureWidth || header.getInt(12) != labelWidth
+            || header.getLong(16) != capacity) {
+         throw new IOException(String.format(
+               "replay store %s holds %dx%d rows with capacity %d, not %dx%d with capacity %d",
+               file, header.getInt(8), header.getInt(12), header.getLong(16), featureWidth,
+               labelWidth, capacity));
+      }
+      head = header.getLong(HEAD_OFFSET);
+      size = header.getLong(SIZE_OFFSET);
+   }
+
+   private void writeHeader() {
+      header.putInt(0, MAGIC);
+      header.putInt(4, FORMAT_VERSION);
+      header.putInt(8, featureWidth);
+      header.putInt(12, labelWidth);
+      header.putLong(16, capacity);
+      header.putLong(HEAD_OFFSET, 0);
+      header.putLong(SIZE_OFFSET, 0);
+      header.putInt(RECORD_ORDER_OFFSET, recordOrder());
+   }
+
+   private static int recordOrder() {
+      return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? 0 : 1;
+   }
+
+   public int getFeatureWidth() {
+      return featureWidth;
+   }
+
+   public int getLabelWidth() {
+      return labelWidth;
+   }
+
+   public long getCapacity() {
+      return capacity;
+   }
+
+   /**
+    * Returns the number of rows currently stored.
+    */
+   public long size() {
+      return size;
+   }
+
+   private ByteBuffer segment(long record) {
+      return segments[(int) (record / recordsPerSegment)];
+   }
+
+   private int position(long record) {
+      return (int) (record % recordsPerSegment) * recordSize;
+   }
+
+   /**
+    * Appends a row, overwriting the oldest one if the store is full.
+    *
+    * @param features a row of {@link #getFeatureWidth()} values
+    * @param labels   a row of {@link #getLabelWidth()} values
+    */
+   public void append(double[] features, double[] labels) {
+      if (features.length != featureWidth || labels.length != labelWidth) {
+         throw new IllegalArgumentException("expected " + featureWidth + " features and "
+               + labelWidth + " labels, got " + features.length + " and " + labels.length);
+      }
+      ByteBuffer segment = segment(head);
+      int position = position(head);
+      for (int c = 0; c < featureWidth; c++, position += Float.BYTES) {
+         segment.putFloat(position, (float) features[c]);
+      }
+      for (int c = 0; c < labelWidth; c++, position += Float.BYTES) {
+         segment.putFloat(position, (float) labels[c]);
+      }
+
+      head = (head + 1) % capacity;
+      size = Math.min(size + 1, capacity);
+      header.putLong(HEAD_OFFSET, head);
+      header.putLong(SIZE_OFFSET, size);
+   }
+
+   /**
+    * Copies rows chosen uniformly at random, with replacement, into the rows of
+    * a feature and a label matrix. Each record is copied straight from the
+    * mapped file into the matrices' native memory, without passing through
+    * the heap.
+    *
+    * @param random   the source of row choices
+    * @param features a c-ordered float matrix with {@link #getFeatureWidth()}
+    *                 columns, filled from row 0
+    * @param labels   a c-ordered float matrix with {@link #getLabelWidth()}
+    *                 columns and as many rows as {@code features}
+    */
+   public void sample(Random random, INDArray features, INDArray labels) {
+      if (size == 0) {
+         throw new IllegalStateException("the replay store is empty");
+      }
+      ByteBuffer featureBuffer = target(features, featureWidth);
+      ByteBuffer labelBuffer = target(labels, labelWidth);
+      int featureBytes = featureWidth * Float.BYTES;
+      int labelBytes = labelWidth * Float.BYTES;
+
+      for (int r = 0; r < features.rows(); r++) {
+         long record = (long) (random.nextDouble() * size);
+         ByteBuffer segment = segment(record).duplicate();
+         int position = position(record);
+
+         segment.limit(position + featureBytes).position(position);
+         featureBuffer.position(r * featureBytes);
+         featureBuffer.put(segment);
+
+         segment.limit(position + featureBytes + labelBytes).position(position + featureBytes);
+         labelBuffer.position(r * labelBytes);
+         labelBuffer.put(segment);
+      }
+   }
+
+   private static ByteBuffer target(INDArray matrix, int width) {
+      if (matrix.dataType() != DataType.FLOAT || matrix.ordering() != 'c' || matrix.isView()
+            || matrix.columns() != width) {
+         throw new IllegalArgumentException("expected a c-ordered float matrix with " + width
+               + " columns: " + matrix.shapeInfoToString());
+      }
+      return matrix.data().asNio().order(ByteOrder.nativeOrder());
+   }
+
+   /**
+    * Writes stored rows and the header back to the file.
+    */
+   public void force() {
+      for (MappedByteBuffer segment : segments) {
+         segment.force();
+      }
+      header.force();
+   }
+
+   @Override
+   public void close() throws IOException {
+      force();
+      channel.close();
+   }
+}
@@ -0,0 +1,276 @@
+package ml.learning.dubinscar.training;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.nd4j.linalg.api.buffer.DataType;
+import org.nd4j.linalg.dataset.DataSet;
+import org.nd4j.linalg.dataset.api.DataSetPreProcessor;
+import org.nd4j.linalg.dataset.api.iterator.DataSetIterator;
+import org.nd4j.linalg.factory.Nd4j;
+
+import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.geometry.Waypoint;
+import ml.learning.dubinscar.pathplanning.HybridAStarPathPlanner;
+import ml.learning.dubinscar.pathplanning.NeuralNetworkPathPlanner;
+import ml.learning.dubinscar.pathplanning.PathPlanner;
+import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+
+/**
+ * Iterates over minibatches of generated scenarios labelled with an expert
+ * planner's paths. Batches are generated and encoded by background threads
+ * and queued, up to the prefetch depth, ahead of the consumer, so a network
+ * fit on this iterator does not wait for generation as long as the producers
+ * keep up. Each producer thread has its own generator and planner.
+ * <p>
+ * Expert paths with more intermediate waypoints than the network outputs are
+ * thinned to evenly spaced waypoints.
+ */
+public class ScenarioDataSetIterator implements DataSetIterator {
+
+   private static final long serialVersionUID = 1L;
+
+   public static final int DEFAULT_PREFETCH_DEPTH = 4;
+
+   private final Supplier<DubinsCarTrainingDataGenerator> generators;
+   private final Supplier<PathPlanner> planners;
+   private final int batchSize;
+   private final int numBatches;
+   private final int prefetchDepth;
+   private final int numThreads;
+   private DataSetPreProcessor preProcessor;
+
+   private transient BlockingQueue<DataSet> queue;
+   private transient ExecutorService producers;
+   private transient AtomicInteger claimed;
+   private transient AtomicReference<Throwable> failure;
+   private int consumed;
+
+   /**
+    * Creates an iterator over scenarios from the default generator, labelled by
+    * a {@link HybridAStarPathPlanner}.
+    */
+   public ScenarioDataSetIterator(int batchSize, int numBatches) {
+      this(DubinsCarTrainingDataGenerator::getDefault, HybridAStarPathPlanner::new, batchSize,
+            numBatches, DEFAULT_PREFETCH_DEPTH, NeuralNetworkTrainer.DEFAULT_NUM_WORKERS);
+   }
+
+   /**
+    * Creates an iterator and starts its producer threads.
+    *
+    * @param generators    creates a generator for each producer thread
+    * @param planners      creates the expert planner for each producer thread
+    * @param batchSize     the number of scenarios per batch
+    * @param numBatches    the number of batches in one pass
+    * @param prefetchDepth the number of batches produced ahead of consumption
+    * @param numThreads    the number of producer threads
+    */
+   public ScenarioDataSetIterator(Supplier<DubinsCarTrainingDataGenerator> generators,
+         Supplier<PathPlanner> planners, int batchSize, int numBatches, int prefetchDepth,
+         int numThreads) {
+      if (batchSize < 1 || numBatches < 0 || prefetchDepth < 1 || numThreads < 1) {
+         throw new IllegalArgumentException(String.format(
+               "invalid batchSize %d, numBatches %d, prefetchDepth %d or numThreads %d", batchSize,
+               numBatches, prefetchDepth, numThreads));
+      }
+      this.generators = generators;
+      this.planners = planners;
+      this.batchSize = batchSize;
+      this.numBatches = numBatches;
+      this.prefetchDepth = prefetchDepth;
+      this.numThreads = numThreads;
+      start();
+   }
+
+   private void start() {
+      queue = new ArrayBlockingQueue<>(prefetchDepth);
+      claimed = new AtomicInteger();
+      failure = new AtomicReference<>();
+      consumed = 0;
+      producers = Executors.newFixedThreadPool(numThreads, r -> {
+         Thread thread = new Thread(r, "scenario-prefetch");
+         thread.setDaemon(true);
+         return thread;
+      });
+      // each pass has its own queue, counter and failure, so producers of a pass
+      // that was reset cannot leak batches or errors into the next one
+      BlockingQueue<DataSet> queue = this.queue;
+      AtomicInteger claimed = this.claimed;
+      AtomicReference<Throwable> failure = this.failure;
+      for (int t = 0; t < numThreads; t++) {
+         producers.execute(() -> produce(queue, claimed, failure));
+      }
+   }
+
+   private void produce(BlockingQueue<DataSet> queue, AtomicInteger claimed,
+         AtomicReference<Throwable> failure) {
+      DubinsCarTrainingDataGenerator generator = generators.get();
+      PathPlanner planner = planners.get();
+      try {
+         while (claimed.getAndIncrement() < numBatches) {
+            queue.put(createBatch(generator, planner));
+         }
+      } catch (InterruptedException e) {
+         // reset or shut down
+      } catch (Throwable t) {
+         // errors too, or the consumer would wait for batches that never come
+         failure.compareAndSet(null, t);
+      }
+   }
+
+   private DataSet createBatch(DubinsCarTrainingDataGenerator generator, PathPlanner planner) {
+      int inputSize = NeuralNetworkPathPlanner.getInputSize();
+      int outputSize = NeuralNetworkPathPlanner.getOutputSize();
+      double[] features = new double[batchSize * inputSize];
+      double[] labels = new double[batchSize * outputSize];
+
+      List<TrainingExample> examples = generator.generateTrainingData(batchSize);
+      for (int r = 0; r < batchSize; r++) {
+         TrainingExample example = examples.get(r);
+         NeuralNetworkPathPlanner.encodeInput(example.getCar(), example.getStart(),
+               example.getEnd(), example.getObstacles(), example.getSpeedReductionRegions(),
+               example.getSwPoint(), example.getNePoint(), features, r * inputSize);
+         DubinsPath path = planner.planPath(example.getCar(), example.getStart(), example.getEnd(),
+               example.getObstacles(), example.getSpeedReductionRegions(), example.getSwPoint(),
+               example.getNePoint());
+         NeuralNetworkPathPlanner.encodeOutput(thin(path.getWaypoints()), example.getNePoint(),
+               example.getSwPoint(), labels, r * outputSize);
+      }
+
+      return new DataSet(
+            Nd4j.create(features, new long[] { batchSize, inputSize }, DataType.FLOAT),
+            Nd4j.create(labels, new long[] { batchSize, outputSize }, DataType.FLOAT));
+   }
+
+   /**
+    * Keeps the end points of a path and at most
+    * {@link NeuralNetworkPathPlanner#MAX_WAYPOINTS} evenly spaced waypoints in
+    * between.
+    */
+   private static List<Waypoint> thin(List<Waypoint> waypoints) {
+      int intermediate = waypoints.size() - 2;
+      int max = NeuralNetworkPathPlanner.MAX_WAYPOINTS;
+      if (intermediate <= max) {
+         return waypoints;
+      }
+      List<Waypoint> thinned = new ArrayList<>(max + 2);
+      thinned.add(waypoints.get(0));
+      for (int k = 1; k <= max; k++) {
+         thinned.add(waypoints.get((int) Math.round((double) k * (intermediate + 1) / (max + 1))));
+      }
+      thinned.add(waypoints.get(waypoints.size() - 1));
+      return thinned;
+   }
+
+   @Override
+   public boolean hasNext() {
+      return consumed < numBatches;
+   }
+
+   @Override
+   public DataSet next() {
+      if (!hasNext()) {
+         throw new NoSuchElementException();
+      }
+      try {
+         DataSet batch;
+         while ((batch = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+            Throwable t = failure.get();
+            if (t instanceof Error) {
+               throw (Error) t;
+            } else if (t != null) {
+               throw new IllegalStateException("scenario generation failed", t);
+            }
+         }
+         consumed++;
+         if (preProcessor != null) {
+            preProcessor.preProcess(batch);
+         }
+         return batch;
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("interrupted while waiting for a batch", e);
+      }
+   }
+
+   /**
+    * Returns the next batch. Only the configured batch size is supported.
+    */
+   @Override
+   public DataSet next(int num) {
+      if (num != batchSize) {
+         throw new UnsupportedOperationException(
+               "batches are prefetched with size " + batchSize + ", not " + num);
+      }
+      return next();
+   }
+
+   @Override
+   public int inputColumns() {
+      return NeuralNetworkPathPlanner.getInputSize();
+   }
+
+   @Override
+   public int totalOutcomes() {
+      return NeuralNetworkPathPlanner.getOutputSize();
+   }
+
+   @Override
+   public boolean resetSupported() {
+      return true;
+   }
+
+   /**
+    * Returns false; the iterator already prefetches, so it should not be
+    * wrapped in another asynchronous iterator.
+    */
+   @Override
+   public boolean asyncSupported() {
+      return false;
+   }
+
+   /**
+    * Discards any prefetched batches and starts a new pass of fresh scenarios.
+    */
+   @Override
+   public void reset() {
+      shutdown();
+      start();
+   }
+
+   /**
+    * Stops the producer threads.
+    */
+   public void shutdown() {
+      producers.shutdownNow();
+   }
+
+   @Override
+   public int batch() {
+      return batchSize;
+   }
+
+   @Override
+   public void setPreProcessor(DataSetPreProcessor preProcessor) {
+      this.preProcessor = preProcessor;
+   }
+
+   @Override
+   public DataSetPreProcessor getPreProcessor() {
+      return preProcessor;
+   }
+
+   @Override
+   public List<String> getLabels() {
+      return null;
+   }
+}
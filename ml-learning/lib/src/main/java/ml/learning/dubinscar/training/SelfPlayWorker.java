@@ -0,0 +1,104 @@
+package ml.learning.dubinscar.training;
+
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.ndarray.INDArray;
+import org.nd4j.linalg.factory.Nd4j;
+
+import ml.learning.dubinscar.training.GameRunner.GameResult;
+
+/**
+ * Plays self-play matches on its own copies of the two networks and hands the
+ * results to the learner through a bounded queue. Before each match the copies
+ * are brought up to the latest published {@link Snapshot}, so a worker never
+ * touches the networks the learner is fitting. Runs until interrupted, or
+ * until a match throws: the failure is then recorded for the learner to
+ * rethrow, and the worker stops.
+ */
+class SelfPlayWorker implements Runnable {
+
+   /**
+    * Read-only copies of both networks' parameters, published by the learner.
+    */
+   static class Snapshot {
+      final long version;
+      final INDArray params1;
+      final INDArray params2;
+
+      private Snapshot(long version, INDArray params1, INDArray params2) {
+         this.version = version;
+         this.params1 = params1;
+         this.params2 = params2;
+      }
+
+      /**
+       * Copies the current parameters of both networks. Must be called on the
+       * thread that trains them.
+       */
+      static Snapshot of(long version, MultiLayerNetwork model1, MultiLayerNetwork model2) {
+         try (MemoryWorkspace ws = Nd4j.getWorkspaceManager().scopeOutOfWorkspaces()) {
+            return new Snapshot(version, model1.params().dup(), model2.params().dup());
+         }
+      }
+   }
+
+   private final MultiLayerNetwork model1;
+   private final MultiLayerNetwork model2;
+   private final AtomicReference<Snapshot> snapshot;
+   private final BlockingQueue<GameResult> results;
+   private final AtomicReference<Throwable> failure;
+   private final GameRunner runner = new GameRunner();
+   private long version = -1;
+
+   /**
+    * Creates a worker. The networks must be copies owned by this worker.
+    *
+    * @param model1   this worker's copy of the first network
+    * @param model2   this worker's copy of the second network
+    * @param snapshot where the learner publishes new parameters
+    * @param results  where finished matches are put
+    * @param failure  where the first failure of any worker is recorded
+    */
+   SelfPlayWorker(MultiLayerNetwork model1, MultiLayerNetwork model2,
+         AtomicReference<Snapshot> snapshot, BlockingQueue<GameResult> results,
+         AtomicReference<Throwable> failure) {
+      this.model1 = model1;
+      this.model2 = model2;
+      this.snapshot = snapshot;
+      this.results = results;
+      this.failure = failure;
+   }
+
+   @Override
+   public void run() {
+      while (!Thread.currentThread().isInterrupted()) {
+         try {
+            results.put(playMatch());
+         } catch (InterruptedException e) {
+            return;
+         } catch (Throwable t) {
+            // a match that fails once will likely fail again; let the learner know
+            failure.compareAndSet(null, t);
+            return;
+         }
+      }
+   }
+
+   private GameResult playMatch() {
+      Snapshot latest = snapshot.get();
+      if (latest.version != version) {
+         model1.setParams(latest.params1);
+         model2.setParams(latest.params2);
+         version = latest.version;
+      }
+
+      // the inference arrays of the match are reclaimed with the workspace; the
+      // result holds only heap rows, so it can outlive it and cross threads
+      try (MemoryWorkspace ws = Workspaces.open(Workspaces.SELF_PLAY)) {
+         return runner.playMatch(model1, model2);
+      }
+   }
+}
@@ -0,0 +1,428 @@
+package ml.learning.dubinscar.training;
+
+import java.awt.geom.Point2D;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import ml.learning.dubinscar.environment.Obstacle;
+import ml.learning.dubinscar.environment.SpeedReductionRegion;
+import ml.learning.dubinscar.geometry.DubinsCar;
+import ml.learning.dubinscar.geometry.DubinsPath;
+import ml.learning.dubinscar.geometry.Polygon2D;
+import ml.learning.dubinscar.geometry.Waypoint;
+import ml.learning.dubinscar.training.DubinsCarTrainingDataGenerator.TrainingExample;
+
+/**
+ * A read-only dataset of training examples stored in a columnar binary file.
+ * Every scalar of an example (start, end, car pose and parameters, op-area) is
+ * a column with one value per example. Obstacles, speed reduction regions and
+ * the example path are flattened into vertex columns, located through offset
+ * columns: example {@code i} owns obstacles {@code [obstacleStart[i],
+ * obstacleStart[i + 1])}, and obstacle {@code k} owns vertices
+ * {@code [obstacleVertexStart[k], obstacleVertexStart[k + 1])}.
+ * <p>
+ * Each column is memory-mapped separately, so opening a file reads only its
+ * header, and {@link #get(int)} decodes a single example on demand. Instances
+ * are immutable and thread-safe. Values are little-endian and each column
+ * starts on an 8-byte boundary.
+ */
+public class TrainingExampleFile {
+
+   private static final int MAGIC = 0x44434558;
+   private static final int FORMAT_VERSION = 1;
+   private static final int HEADER_SIZE = 64;
+
+   private static final int START_X = 0;
+   private static final int START_Y = 1;
+   private static final int START_THETA = 2;
+   private static final int END_X = 3;
+   private static final int END_Y = 4;
+   private static final int END_THETA = 5;
+   private static final int CAR_X = 6;
+   private static final int CAR_Y = 7;
+   private static final int CAR_THETA = 8;
+   private static final int CAR_RADIUS = 9;
+   private static final int SW_X = 10;
+   private static final int SW_Y = 11;
+   private static final int NE_X = 12;
+   private static final int NE_Y = 13;
+   private static final int SCALAR_COLUMNS = 14;
+
+   private final int size;
+   private final DoubleBuffer[] scalars = new DoubleBuffer[SCALAR_COLUMNS];
+   private final IntBuffer carSpeed;
+   private final Polygons obstacles;
+   private final Polygons regions;
+   private final IntBuffer pathStart;
+   private final DoubleBuffer pathX;
+   private final DoubleBuffer pathY;
+   private final DoubleBuffer pathTheta;
+
+   /**
+    * The polygons of one kind, with a value such as a speed reduction each.
+    */
+   private static class Polygons {
+      final IntBuffer start;
+      final IntBuffer vertexStart;
+      final DoubleBuffer value;
+      final DoubleBuffer x;
+      final DoubleBuffer y;
+
+      Polygons(Mapper in, int examples, int polygons, int vertices) throws IOException {
+         start = in.ints(examples + 1);
+         vertexStart = in.ints(polygons + 1);
+         value = in.doubles(polygons);
+         x = in.doubles(vertices);
+         y = in.doubles(vertices);
+      }
+
+      Polygon2D polygon(int k) {
+         int from = vertexStart.get(k);
+         int count = vertexStart.get(k + 1) - from;
+         double[] xs = new double[count];
+         double[] ys = new double[count];
+         x.get(from, xs);
+         y.get(from, ys);
+         return new Polygon2D(xs, ys);
+      }
+   }
+
+   /**
+    * Maps consecutive columns of a file.
+    */
+   private static class Mapper {
+      private final FileChannel channel;
+      private long position = HEADER_SIZE;
+
+      Mapper(FileChannel channel) {
+         this.channel = channel;
+      }
+
+      private ByteBuffer map(long bytes) throws IOException {
+         ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes)
+               .order(ByteOrder.LITTLE_ENDIAN);
+         position = align(position + bytes);
+         return buffer;
+      }
+
+      DoubleBuffer doubles(int count) throws IOException {
+         return map((long) count * Double.BYTES).asDoubleBuffer();
+      }
+
+      IntBuffer ints(int count) throws IOException {
+         return map((long) count * Integer.BYTES).asIntBuffer();
+      }
+   }
+
+   private static long align(long position) {
+      return (position + 7) & ~7L;
+   }
+
+   private TrainingExampleFile(FileChannel channel, File file) throws IOException {
+      ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+      channel.read(header, 0);
+      if (header.getInt(0) != MAGIC || header.getInt(4) != FORMAT_VERSION) {
+         throw new IOException("not a training example file: " + file);
+      }
+      size = header.getInt(8);
+
+      Mapper in = new Mapper(channel);
+      for (int c = 0; c < SCALAR_COLUMNS; c++) {
+         scalars[c] = in.doubles(size);
+      }
+      carSpeed = in.ints(size);
+      obstacles = new Polygons(in, size, header.getInt(12), header.getInt(16));
+      regions = new Polygons(in, size, header.getInt(20), header.getInt(24));
+      int waypoints = header.getInt(28);
+      pathStart = in.ints(size + 1);
+      pathX = in.doubles(waypoints);
+      pathY = in.doubles(waypoints);
+      pathTheta = in.doubles(waypoints);
+   }
+
+   /**
+    * Maps a dataset file. The mappings stay valid after this returns; no file
+    * handle is kept open.
+    *
+    * @param file the file written by {@link #write(File, List)}
+    * @return the dataset
+    * @throws IOException if the file cannot be read or is not a dataset
+    */
+   public static TrainingExampleFile open(File file) throws IOException {
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+         return new TrainingExampleFile(channel, file);
+      }
+   }
+
+   /**
+    * Returns the number of examples.
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Decodes one example.
+    *
+    * @param index the index of the example
+    * @return a new example object
+    */
+   public TrainingExample get(int index) {
+      if (index < 0 || index >= size) {
+         throw new IndexOutOfBoundsException("index " + index + " of " + size);
+      }
+      DubinsCar car = new DubinsCar(scalar(CAR_X, index), scalar(CAR_Y, index),
+            scalar(CAR_THETA, index), scalar(CAR_RADIUS, index), carSpeed.get(index));
+      Waypoint start = new Waypoint(scalar(START_X, index), scalar(START_Y, index),
+            scalar(START_THETA, index));
+      Waypoint end = new Waypoint(scalar(END_X, index), scalar(END_Y, index),
+            scalar(END_THETA, index));
+
+      List<Obstacle> obstacleList = new ArrayList<>();
+      for (int k = obstacles.start.get(index); k < obstacles.start.get(index + 1); k++) {
+         obstacleList.add(new Obstacle(obstacles.polygon(k), obstacles.value.get(k)));
+      }
+      List<SpeedReductionRegion> regionList = new ArrayList<>();
+      for (int k = regions.start.get(index); k < regions.start.get(index + 1); k++) {
+         regionList.add(new SpeedReductionRegion(regions.polygon(k), regions.value.get(k)));
+      }
+      List<Waypoint> path = new ArrayList<>();
+      for (int k = pathStart.get(index); k < pathStart.get(index + 1); k++) {
+         path.add(new Waypoint(pathX.get(k), pathY.get(k), pathTheta.get(k)));
+      }
+
+      return new TrainingExample(car, start, end, obstacleList, regionList,
+            new Point2D.Double(scalar(SW_X, index), scalar(SW_Y, index)),
+            new Point2D.Double(scalar(NE_X, index), scalar(NE_Y, index)), new DubinsPath(path));
+   }
+
+   private double scalar(int column, int index) {
+      return scalars[column].get(index);
+   }
+
+   /**
+    * Writes examples to a dataset file, replacing any existing file.
+    *
+    * @param file     the file to write
+    * @param examples the examples
+    * @throws IOException if the file cannot be written
+    */
+   public static void write(File file, List<TrainingExample> examples) throws IOException {
+      long obstacleCount = 0;
+      long obstacleVertices = 0;
+      long regionCount = 0;
+      long regionVertices = 0;
+      long waypoints = 0;
+      for (TrainingExample example : examples) {
+         obstacleCount += example.getObstacles().size();
+         for (Obstacle obstacle : example.getObstacles()) {
+            obstacleVertices += obstacle.getPolygon().getVertexCount();
+         }
+         regionCount += example.getSpeedReductionRegions().size();
+         for (SpeedReductionRegion region : example.getSpeedReductionRegions()) {
+            regionVertices += region.getPolygon().getVertexCount();
+         }
+         waypoints += example.getDubinsPath().getWaypoints().size();
+      }
+      if (Math.max(Math.max(obstacleVertices, regionVertices), waypoints) >= Integer.MAX_VALUE) {
+         throw new IllegalArgumentException("too many vertices or waypoints for one file");
+      }
+
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+         Writer out = new Writer(channel);
+         out.putInt(MAGIC);
+         out.putInt(FORMAT_VERSION);
+         out.putInt(examples.size());
+         out.putInt((int) obstacleCount);
+         out.putInt((int) obstacleVertices);
+         out.putInt((int) regionCount);
+         out.putInt((int) regionVertices);
+         out.putInt((int) waypoints);
+         out.pad(HEADER_SIZE);
+
+         for (int c = 0; c < SCALAR_COLUMNS; c++) {
+            for (TrainingExample example : examples) {
+               out.putDouble(scalar(example, c));
+            }
+            out.align();
+         }
+         for (TrainingExample example : examples) {
+            out.putInt(example.getCar().getSpeed());
+         }
+         out.align();
+
+         List<Obstacle> allObstacles = new ArrayList<>((int) obstacleCount);
+         List<SpeedReductionRegion> allRegions = new ArrayList<>((int) regionCount);
+         for (TrainingExample example : examples) {
+            allObstacles.addAll(example.getObstacles());
+            allRegions.addAll(example.getSpeedReductionRegions());
+         }
+         writePolygonStarts(out, examples, true);
+         writeVertices(out, allObstacles.stream().map(Obstacle::getPolygon).toList(),
+               allObstacles.stream().mapToDouble(Obstacle::getSpeedReduction).toArray());
+         writePolygonStarts(out, examples, false);
+         writeVertices(out, allRegions.stream().map(SpeedReductionRegion::getPolygon).toList(),
+               allRegions.stream().mapToDouble(SpeedReductionRegion::getReductionFactor).toArray());
+
+         int offset = 0;
+         for (TrainingExample example : examples) {
+            out.putInt(offset);
+            offset += example.getDubinsPath().getWaypoints().size();
+         }
+         out.putInt(offset);
+         out.align();
+         for (int coordinate = 0; coordinate < 3; coordinate++) {
+            for (TrainingExample example : examples) {
+               for (Waypoint wp : example.getDubinsPath().getWaypoints()) {
+                  out.putDouble(coordinate == 0 ? wp.getX()
+                        : coordinate == 1 ? wp.getY() : wp.getOrientation());
+               }
+            }
+            out.align();
+         }
+         out.flush();
+      }
+   }
+
+   /**
+    * Writes the per-example offsets into the obstacle or region table.
+    */
+   private static void writePolygonStarts(Writer out, List<TrainingExample> examples,
+         boolean obstacles) throws IOException {
+      int offset = 0;
+      for (TrainingExample example : examples) {
+         out.putInt(offset);
+         offset += obstacles ? example.getObstacles().size()
+               : example.getSpeedReductionRegions().size();
+      }
+      out.putInt(offset);
+      out.align();
+   }
+
+   /**
+    * Writes the vertex offsets, values and vertex coordinates of polygons.
+    */
+   private static void writeVertices(Writer out, List<Polygon2D> polygons, double[] values)
+         throws IOException {
+      int offset = 0;
+      for (Polygon2D polygon : polygons) {
+         out.putInt(offset);
+         offset += polygon.getVertexCount();
+      }
+      out.putInt(offset);
+      out.align();
+      for (double value : values) {
+         out.putDouble(value);
+      }
+      out.align();
+      for (Polygon2D polygon : polygons) {
+         for (int v = 0; v < polygon.getVertexCount(); v++) {
+            out.putDouble(polygon.getX(v));
+         }
+      }
+      out.align();
+      for (Polygon2D polygon : polygons) {
+         for (int v = 0; v < polygon.getVertexCount(); v++) {
+            out.putDouble(polygon.getY(v));
+         }
+      }
+      out.align();
+   }
+
+   private static double scalar(TrainingExample example, int column) {
+      switch (column) {
+      case START_X:
+         return example.getStart().getX();
+      case START_Y:
+         return example.getStart().getY();
+      case START_THETA:
+         return example.getStart().getOrientation();
+      case END_X:
+         return example.getEnd().getX();
+      case END_Y:
+         return example.getEnd().getY();
+      case END_THETA:
+         return example.getEnd().getOrientation();
+      case CAR_X:
+         return example.getCar().getX();
+      case CAR_Y:
+         return example.getCar().getY();
+      case CAR_THETA:
+         return example.getCar().getTheta();
+      case CAR_RADIUS:
+         return example.getCar().getRadius();
+      case SW_X:
+         return example.getSwPoint().getX();
+      case SW_Y:
+         return example.getSwPoint().getY();
+      case NE_X:
+         return example.getNePoint().getX();
+      case NE_Y:
+         return example.getNePoint().getY();
+      default:
+         throw new IllegalArgumentException("no scalar column " + column);
+      }
+   }
+
+   /**
+    * Writes little-endian values to a channel through a direct buffer,
+    * keeping track of the file position for alignment.
+    */
+   private static class Writer {
+      private final FileChannel channel;
+      private final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20)
+            .order(ByteOrder.LITTLE_ENDIAN);
+      private long position;
+
+      Writer(FileChannel channel) {
+         this.channel = channel;
+      }
+
+      void putInt(int value) throws IOException {
+         ensure(Integer.BYTES);
+         buffer.putInt(value);
+         position += Integer.BYTES;
+      }
+
+      void putDouble(double value) throws IOException {
+         ensure(Double.BYTES);
+         buffer.putDouble(value);
+         position += Double.BYTES;
+      }
+
+      void pad(long to) throws IOException {
+         while (position < to) {
+            ensure(1);
+            buffer.put((byte) 0);
+            position++;
+         }
+      }
+
+      void align() throws IOException {
+         pad(TrainingExampleFile.align(position));
+      }
+
+      private void ensure(int bytes) throws IOException {
+         if (buffer.remaining() < bytes) {
+            flush();
+         }
+      }
+
+      void flush() throws IOException {
+         buffer.flip();
+         while (buffer.hasRemaining()) {
+            channel.write(buffer);
+         }
+         buffer.clear();
+      }
+   }
+}
@@ -0,0 +1,90 @@
+package ml.learning.dubinscar.training;
+
+import org.deeplearning4j.nn.conf.WorkspaceMode;
+import org.deeplearning4j.nn.multilayer.MultiLayerNetwork;
+import org.nd4j.linalg.api.memory.MemoryWorkspace;
+import org.nd4j.linalg.api.memory.conf.WorkspaceConfiguration;
+import org.nd4j.linalg.api.memory.enums.AllocationPolicy;
+import org.nd4j.linalg.api.memory.enums.LearningPolicy;
+import org.nd4j.linalg.api.memory.enums.ResetPolicy;
+import org.nd4j.linalg.api.memory.enums.SpillPolicy;
+import org.nd4j.linalg.factory.Nd4j;
+
+/**
+ * The ND4J memory workspaces that self-play, evaluation and training run in.
+ * Arrays created while a workspace is open live in its memory, which is
+ * reused the next time the workspace is opened on the same thread instead of
+ * being freed by the garbage collector. Such arrays must not be used after the
+ * scope that created them is closed.
+ */
+public class Workspaces {
+
+   public static final String SELF_PLAY = "DUBINS_SELF_PLAY";
+   public static final String EVALUATION = "DUBINS_EVALUATION";
+   public static final String TRAINING = "DUBINS_TRAINING";
+
+   private static volatile WorkspaceConfiguration configuration = defaultConfiguration();
+   private static volatile boolean enabled = true;
+
+   /**
+    * Returns the default configuration: the workspace learns its size over the
+    * first cycle, allocates that with some headroom, grows if a later cycle
+    * needs more, and is rewound each time it is closed.
+    */
+   public static WorkspaceConfiguration defaultConfiguration() {
+      return WorkspaceConfiguration.builder().initialSize(0).overallocationLimit(0.2)
+            .policyAllocation(AllocationPolicy.OVERALLOCATE)
+            .policyLearning(LearningPolicy.FIRST_LOOP).policyReset(ResetPolicy.BLOCK_LEFT)
+            .policySpill(SpillPolicy.REALLOCATE).build();
+   }
+
+   public static WorkspaceConfiguration getConfiguration() {
+      return configuration;
+   }
+
+   /**
+    * Sets the configuration used by workspaces opened from now on. Workspaces
+    * that already exist on a thread keep the configuration they were created
+    * with.
+    */
+   public static void setConfiguration(WorkspaceConfiguration configuration) {
+      Workspaces.configuration = configuration;
+   }
+
+   public static boolean isEnabled() {
+      return enabled;
+   }
+
+   /**
+    * Enables or disables workspaces. While disabled, {@link #open(String)}
+    * scopes out of all workspaces and arrays are ordinary garbage-collected
+    * arrays.
+    */
+   public static void setEnabled(boolean enabled) {
+      Workspaces.enabled = enabled;
+   }
+
+   /**
+    * Opens the workspace with the given id on the calling thread. Use it in a
+    * try-with-resources block around one iteration of a loop.
+    *
+    * @param id the workspace id, e.g. {@link #SELF_PLAY}
+    * @return the open workspace, to be closed at the end of the iteration
+    */
+   public static MemoryWorkspace open(String id) {
+      if (!enabled) {
+         return Nd4j.getWorkspaceManager().scopeOutOfWorkspaces();
+      }
+      return Nd4j.getWorkspaceManager().getAndActivateWorkspace(configuration, id);
+   }
+
+   /**
+    * Makes a network keep its activations and gradients in workspaces during
+    * training and inference, or not, following {@link #isEnabled()}.
+    */
+   public static void configure(MultiLayerNetwork model) {
+      WorkspaceMode mode = enabled ? WorkspaceMode.ENABLED : WorkspaceMode.NONE;
+      model.getLayerWiseConfigurations().setTrainingWorkspaceMode(mode);
+      model.getLayerWiseConfigurations().setInferenceWorkspaceMode(mode);
+   }
+}
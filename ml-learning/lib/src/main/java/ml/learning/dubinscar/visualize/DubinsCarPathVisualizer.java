@@ -5,19 +5,34 @@ import java.awt.Dimension;
 import java.awt.Graphics;
 import java.awt.geom.Point2D;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import ml.learning.dubinscar.environment.Obstacle;
 import ml.learning.dubinscar.geometry.Waypoint;
+import ml.learning.dubinscar.metrics.Metrics;
 
-public class DubinsCarPathVisualizer extends JPanel {
+/**
+ * Shows a scenario and a path in a window. Needs a display; see
+ * {@link PngSnapshotWriter} for headless use.
+ */
+public class DubinsCarPathVisualizer extends JPanel implements PathView {
 
    private static final long serialVersionUID = 1L;
 
+   private static final LongAdder DROPPED = Metrics.counter("visualizer.droppedFrames");
+
    private static final int OFFSET = 100;
 
+   /**
+    * The width and height of the drawing, in pixels.
+    */
+   static final int SIZE = 500;
+
    private JFrame frame;
 
    private Waypoint start;
@@ -27,8 +42,10 @@ public class DubinsCarPathVisualizer extends JPanel {
    private Point2D swPoint;
    private Point2D nePoint;
 
+   private final transient AtomicReference<PathSnapshot> pending = new AtomicReference<>();
+
    public DubinsCarPathVisualizer() {
-      setPreferredSize(new Dimension(500, 500));
+      setPreferredSize(new Dimension(SIZE, SIZE));
 
       frame = new JFrame("Dubins Path Visualizer");
       frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
@@ -58,10 +75,40 @@ public class DubinsCarPathVisualizer extends JPanel {
       this.nePoint = nePoint;
    }
 
+   /**
+    * Shows a snapshot on the event dispatch thread. Snapshots shown while an
+    * earlier one is still waiting for that thread replace it.
+    */
+   @Override
+   public void show(PathSnapshot snapshot) {
+      if (pending.getAndSet(snapshot) == null) {
+         SwingUtilities.invokeLater(this::showPending);
+      } else {
+         DROPPED.increment();
+      }
+   }
+
+   private void showPending() {
+      PathSnapshot snapshot = pending.getAndSet(null);
+      setStart(snapshot.getStart());
+      setEnd(snapshot.getEnd());
+      setWaypoints(snapshot.getWaypoints());
+      setObstacles(snapshot.getObstacles());
+      setOpArea(snapshot.getSwPoint(), snapshot.getNePoint());
+      repaint();
+   }
+
    @Override
    protected void paintComponent(Graphics g) {
       super.paintComponent(g);
+      draw(g, start, end, waypoints, obstacles, swPoint, nePoint);
+   }
 
+   /**
+    * Draws a scenario and a path, doing nothing until all of them are set.
+    */
+   static void draw(Graphics g, Waypoint start, Waypoint end, List<Waypoint> waypoints,
+         List<Obstacle> obstacles, Point2D swPoint, Point2D nePoint) {
       if (start == null || obstacles == null || end == null || waypoints == null) {
          return;
       }
@@ -0,0 +1,64 @@
+package ml.learning.dubinscar.visualize;
+
+import java.awt.geom.Point2D;
+import java.util.List;
+
+import ml.learning.dubinscar.environment.Obstacle;
+import ml.learning.dubinscar.geometry.Waypoint;
+
+/**
+ * An immutable picture of one scenario and the path chosen for it, handed from
+ * a self-play thread to a {@link PathView}.
+ */
+public class PathSnapshot {
+
+   private final long match;
+   private final Waypoint start;
+   private final Waypoint end;
+   private final List<Waypoint> waypoints;
+   private final List<Obstacle> obstacles;
+   private final Point2D swPoint;
+   private final Point2D nePoint;
+
+   public PathSnapshot(long match, Waypoint start, Waypoint end, List<Waypoint> waypoints,
+         List<Obstacle> obstacles, Point2D swPoint, Point2D nePoint) {
+      this.match = match;
+      this.start = start;
+      this.end = end;
+      this.waypoints = List.copyOf(waypoints);
+      this.obstacles = List.copyOf(obstacles);
+      this.swPoint = swPoint;
+      this.nePoint = nePoint;
+   }
+
+   /**
+    * Returns the number of the match the snapshot was taken from.
+    */
+   public long getMatch() {
+      return match;
+   }
+
+   public Waypoint getStart() {
+      return start;
+   }
+
+   public Waypoint getEnd() {
+      return end;
+   }
+
+   public List<Waypoint> getWaypoints() {
+      return waypoints;
+   }
+
+   public List<Obstacle> getObstacles() {
+      return obstacles;
+   }
+
+   public Point2D getSwPoint() {
+      return swPoint;
+   }
+
+   public Point2D getNePoint() {
+      return nePoint;
+   }
+}
@@ -0,0 +1,14 @@
+package ml.learning.dubinscar.visualize;
+
+/**
+ * Something that displays snapshots of self-play matches.
+ */
+public interface PathView {
+
+   /**
+    * Hands over a snapshot to be displayed. May be called from any thread and
+    * must return without waiting for the snapshot to be drawn; a view that is
+    * still busy with an earlier snapshot may drop it.
+    */
+   void show(PathSnapshot snapshot);
+}
@@ -0,0 +1,104 @@
+package ml.learning.dubinscar.visualize;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.imageio.ImageIO;
+
+import ml.learning.dubinscar.metrics.Metrics;
+
+/**
+ * A headless {@link PathView} that draws snapshots into an image and writes
+ * them as {@code match-<number>.png} files, without needing a display. The
+ * drawing and encoding happen on one low-priority daemon thread. Snapshots are
+ * handed over through a single slot: showing a snapshot replaces any that has
+ * not been picked up yet, so callers never wait and frames are dropped while
+ * the thread is busy.
+ */
+public class PngSnapshotWriter implements PathView, Closeable {
+
+   private static final LongAdder DROPPED = Metrics.counter("visualizer.droppedFrames");
+
+   private final File directory;
+   private final AtomicReference<PathSnapshot> pending = new AtomicReference<>();
+   private final Thread writer;
+   private volatile boolean closed;
+
+   /**
+    * Creates the directory if needed and starts the writer thread.
+    *
+    * @param directory where the images are written
+    * @throws IOException if the directory cannot be created
+    */
+   public PngSnapshotWriter(File directory) throws IOException {
+      if (!directory.isDirectory() && !directory.mkdirs()) {
+         throw new IOException("cannot create " + directory);
+      }
+      this.directory = directory;
+      this.writer = new Thread(this::run, "snapshot-writer");
+      writer.setDaemon(true);
+      writer.setPriority(Thread.MIN_PRIORITY);
+      writer.start();
+   }
+
+   @Override
+   public void show(PathSnapshot snapshot) {
+      if (pending.getAndSet(snapshot) != null) {
+         DROPPED.increment();
+      }
+      LockSupport.unpark(writer);
+   }
+
+   private void run() {
+      BufferedImage image = new BufferedImage(DubinsCarPathVisualizer.SIZE,
+            DubinsCarPathVisualizer.SIZE, BufferedImage.TYPE_INT_RGB);
+      while (true) {
+         PathSnapshot snapshot = pending.getAndSet(null);
+         if (snapshot == null) {
+            if (closed) {
+               return;
+            }
+            LockSupport.park(this);
+            continue;
+         }
+
+         Graphics2D g = image.createGraphics();
+         try {
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, image.getWidth(), image.getHeight());
+            DubinsCarPathVisualizer.draw(g, snapshot.getStart(), snapshot.getEnd(),
+                  snapshot.getWaypoints(), snapshot.getObstacles(), snapshot.getSwPoint(),
+                  snapshot.getNePoint());
+         } finally {
+            g.dispose();
+         }
+         File file = new File(directory, String.format("match-%08d.png", snapshot.getMatch()));
+         try {
+            ImageIO.write(image, "png", file);
+         } catch (IOException e) {
+            e.printStackTrace();
+         }
+      }
+   }
+
+   /**
+    * Writes the pending snapshot, if any, and stops the writer thread.
+    */
+   @Override
+   public void close() {
+      closed = true;
+      LockSupport.unpark(writer);
+      try {
+         writer.join();
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+}